@@ -10,17 +10,16 @@ import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
 import com.atlassian.jira.util.collect.MapBuilder;
 import com.atlassian.jira.vcs.Repository;
 import com.atlassian.jira.vcs.RepositoryBrowser;
+import com.atlassian.jira.vcs.RepositoryCircuitBreaker;
 import com.atlassian.jira.vcs.RepositoryManager;
 import com.atlassian.jira.vcs.cvsimpl.CvsRepository;
 import com.atlassian.jira.vcs.cvsimpl.CvsRepositoryUtil;
 import com.atlassian.jira.vcs.viewcvs.ViewCvsBrowser;
 import com.atlassian.jira.web.action.ActionViewData;
 import com.atlassian.sal.api.websudo.WebSudoRequired;
-import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.opensymphony.util.TextUtils;
+import org.apache.commons.lang.StringUtils;
 import org.ofbiz.core.entity.GenericEntityException;
 import org.ofbiz.core.entity.GenericValue;
 
@@ -31,17 +30,15 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import javax.annotation.Nullable;
 
 @WebSudoRequired
 public class AddRepository extends RepositoryActionSupport
 {
-    private Map<Long, Collection<Project>> projects;
+    private RepositoriesViewModel viewModel;
 
     public AddRepository(RepositoryManager repositoryManager, CvsRepositoryUtil cvsRepositoryUtil)
     {
         super(repositoryManager, cvsRepositoryUtil);
-        projects = new HashMap();
     }
 
     public String doDefault() throws Exception
@@ -96,6 +93,9 @@ public class AddRepository extends RepositoryActionSupport
             cvsProps.setProperty(CvsRepository.KEY_PASSWORD, getPassword());
         }
         cvsProps.setProperty(CvsRepository.KEY_FETCH_LOG, String.valueOf(isFetchLog()));
+        cvsProps.setProperty(CvsRepository.KEY_PROJECT_SCOPED, String.valueOf(isProjectScoped()));
+        cvsProps.setProperty(CvsRepository.KEY_RETENTION, StringUtils.trimToEmpty(getRetention()));
+        cvsProps.setProperty(CvsRepository.KEY_ENCODING, StringUtils.trimToEmpty(getEncoding()));
 
         cvsProps.setProperty(CvsRepository.KEY_CVS_TIMEOUT, String.valueOf(getTimeoutMillis()));
         try
@@ -123,24 +123,19 @@ public class AddRepository extends RepositoryActionSupport
 
     private Collection<Project> getProjects(Repository repository)
     {
-        if (!projects.containsKey(repository.getId()))
+        try
         {
-            try
-            {
-                projects.put(repository.getId(), getRepositoryManager().getProjectsForRepository(repository));
-            }
-            catch (GenericEntityException e)
-            {
-                log.error("Error while retrieving projects for repository '" + repository + "'.", e);
-                addErrorMessage(getText("admin.errors.occured.when.retrieving", repository));
-                projects.put(repository.getId(), Collections.EMPTY_LIST);
-            }
+            return getRepositoryManager().getProjectsForRepository(repository);
+        }
+        catch (GenericEntityException e)
+        {
+            log.error("Error while retrieving projects for repository '" + repository + "'.", e);
+            addErrorMessage(getText("admin.errors.occured.when.retrieving", repository));
+            return null;
         }
-
-        return projects.get(repository.getId());
     }
 
-    private String getViewCVSBaseUrl(Repository repository)
+    private static String getViewCVSBaseUrl(Repository repository)
     {
         final RepositoryBrowser repositoryBrowser = repository.getRepositoryBrowser();
         if (repositoryBrowser != null && RepositoryBrowser.VIEW_CVS_TYPE.equals(repositoryBrowser.getType()))
@@ -154,7 +149,7 @@ public class AddRepository extends RepositoryActionSupport
         }
     }
 
-    private String getViewCVSRootParameter(Repository repository)
+    private static String getViewCVSRootParameter(Repository repository)
     {
         final RepositoryBrowser repositoryBrowser = repository.getRepositoryBrowser();
         if (repositoryBrowser != null && RepositoryBrowser.VIEW_CVS_TYPE.equals(repositoryBrowser.getType()))
@@ -168,143 +163,106 @@ public class AddRepository extends RepositoryActionSupport
         }
     }
 
-    // TODO These are slightly ugly hacks to pre-compute Repository -> view cvs data mappings for soy conversion.
-
-
-    @ActionViewData
-    public Map<String, Map<String, String>> getViewCVSRootParameterMappings()
+    /**
+     * Builds the data of the view page in a single pass over the repositories. The soy view reads the repositories and
+     * each of the mappings separately, so the result is kept for the rest of the request.
+     *
+     * @return the view model, never null
+     */
+    private RepositoriesViewModel getViewModel()
     {
-        try
+        if (viewModel == null)
         {
-            // TODO Ugly hack to get a Map of repo id -> base url
-            List<CvsRepository> repositories = getRepositories();
+            final RepositoriesViewModel model = new RepositoriesViewModel();
+            @SuppressWarnings ({ "unchecked" }) final List<CvsRepository> repositories = new ArrayList(getRepositoryManager().getRepositories());
+            Collections.sort(repositories);
+            model.repositories = repositories;
 
-            final Map<String, Repository> repositoryMap = Maps.newHashMap();
-
-            for (Repository repository : repositories)
+            for (Repository repository : model.repositories)
             {
-                repositoryMap.put(repository.getId().toString(), repository);
-            }
+                final String repositoryId = repository.getId().toString();
+                model.viewCVSRootParameters.put(repositoryId, getViewCVSRootParameter(repository));
+                model.viewCVSBaseUrls.put(repositoryId, getViewCVSBaseUrl(repository));
 
-            return MapBuilder.newBuilder("viewCVSRootParameterMappings", newMapFrom(Lists.newArrayList(repositoryMap.keySet()), new Function<String, String>()
-            {
-                @Override
-                public String apply(@Nullable final String repositoryId)
+                final Collection<Project> repositoryProjects = getProjects(repository);
+                model.projects.put(repositoryId, repositoryProjects == null ? Collections.<Project>emptyList() : repositoryProjects);
+                // A repository is only deletable if it is known not to be used by any project
+                model.deletable.put(repositoryId, repositoryProjects != null && repositoryProjects.isEmpty());
+
+                final RepositoryCircuitBreaker.CircuitStatus circuitStatus = getRepositoryManager().getCircuitStatus(repository.getId());
+                if (circuitStatus != null)
                 {
-                    return getViewCVSRootParameter(repositoryMap.get(repositoryId));
+                    final Map<String, Object> circuit = new HashMap<String, Object>();
+                    circuit.put("state", circuitStatus.getState().name());
+                    circuit.put("consecutiveFailures", circuitStatus.getConsecutiveFailures());
+                    circuit.put("lastFailureMessage", StringUtils.defaultString(circuitStatus.getLastFailureMessage()));
+                    circuit.put("lastFailure", getDateTimeFormatter().format(circuitStatus.getLastFailure()));
+                    circuit.put("retryAt", circuitStatus.getRetryAt() == null ? "" : getDateTimeFormatter().format(circuitStatus.getRetryAt()));
+                    model.circuits.put(repositoryId, circuit);
                 }
-            })).toMap();
-        }
-        catch (GenericEntityException e)
-        {
-            return Maps.newHashMap();
+
+                if (repository instanceof CvsRepository && ((CvsRepository) repository).isContentLoaded())
+                {
+                    model.contentSizes.put(repositoryId, getText("admin.cvsmodules.memory.size", formatMegabytes(((CvsRepository) repository).getEstimatedContentSize())));
+                }
+            }
+            viewModel = model;
         }
+        return viewModel;
     }
 
     @ActionViewData
-    public Map<String, Map<String, String>> getViewCVSBaseUrlMappings()
+    public Map<String, Map<String, String>> getViewCVSRootParameterMappings()
     {
-        try
-        {
-            // TODO Ugly hack to get a Map of repo id -> base url
-            List<CvsRepository> repositories = getRepositories();
-
-            final Map<String, Repository> repositoryMap = Maps.newHashMap();
-
-            for (Repository repository : repositories)
-            {
-                repositoryMap.put(repository.getId().toString(), repository);
-            }
+        return MapBuilder.newBuilder("viewCVSRootParameterMappings", getViewModel().viewCVSRootParameters).toMap();
+    }
 
-            return MapBuilder.newBuilder("viewCVSBaseUrlMappings", newMapFrom(Lists.newArrayList(repositoryMap.keySet()), new Function<String, String>()
-            {
-                @Override
-                public String apply(@Nullable final String repositoryId)
-                {
-                    return getViewCVSBaseUrl(repositoryMap.get(repositoryId));
-                }
-            })).toMap();
-        }
-        catch (GenericEntityException e)
-        {
-            return Maps.newHashMap();
-        }
+    @ActionViewData
+    public Map<String, Map<String, String>> getViewCVSBaseUrlMappings()
+    {
+        return MapBuilder.newBuilder("viewCVSBaseUrlMappings", getViewModel().viewCVSBaseUrls).toMap();
     }
 
     @ActionViewData
     public Map<String, Map<String, Collection<Project>>> getRepositoryProjectMappings()
     {
-        try
-        {
-            // TODO Ugly hack to get a Map of repo id -> base url
-            List<CvsRepository> repositories = getRepositories();
-
-            final Map<String, Repository> repositoryMap = Maps.newHashMap();
-
-            for (Repository repository : repositories)
-            {
-                repositoryMap.put(repository.getId().toString(), repository);
-            }
-
-            return MapBuilder.newBuilder("repositoryProjectMappings", newMapFrom(Lists.newArrayList(repositoryMap.keySet()), new Function<String, Collection<Project>>()
-            {
-                @Override
-                public Collection<Project> apply(@Nullable final String repositoryId)
-                {
-                    return getProjects(repositoryMap.get(repositoryId));
-                }
-            })).toMap();
-        }
-        catch (GenericEntityException e)
-        {
-            return Maps.newHashMap();
-        }
+        return MapBuilder.newBuilder("repositoryProjectMappings", getViewModel().projects).toMap();
     }
 
     @ActionViewData
     public Map<String, Map<String, Boolean>> getRepositoryDeletableMappings()
     {
-        try
-        {
-            // TODO Ugly hack to get a Map of repo id -> base url
-            List<CvsRepository> repositories = getRepositories();
+        return MapBuilder.newBuilder("repositoryDeletableMappings", getViewModel().deletable).toMap();
+    }
 
-            final Map<String, Repository> repositoryMap = Maps.newHashMap();
+    @ActionViewData
+    public Map<String, Map<String, Map<String, Object>>> getRepositoryCircuitMappings()
+    {
+        return MapBuilder.newBuilder("repositoryCircuitMappings", getViewModel().circuits).toMap();
+    }
 
-            for (Repository repository : repositories)
-            {
-                repositoryMap.put(repository.getId().toString(), repository);
-            }
+    @ActionViewData
+    public Map<String, Map<String, String>> getRepositoryMemoryMappings()
+    {
+        return MapBuilder.newBuilder("repositoryMemoryMappings", getViewModel().contentSizes).toMap();
+    }
 
-            return MapBuilder.newBuilder("repositoryDeletableMappings", newMapFrom(Lists.newArrayList(repositoryMap.keySet()), new Function<String, Boolean>()
-            {
-                @Override
-                public Boolean apply(@Nullable final String repositoryId)
-                {
-                    return isDeletable(repositoryMap.get(repositoryId));
-                }
-            })).toMap();
-        }
-        catch (GenericEntityException e)
-        {
-            return Maps.newHashMap();
-        }
+    @ActionViewData
+    public String getContentMemory()
+    {
+        return getText("admin.cvsmodules.memory.total", formatMegabytes(getRepositoryManager().getLoadedContentSize()),
+                formatMegabytes(getRepositoryManager().getContentBudget()));
     }
 
-    public static <K,V> Map<K,V> newMapFrom(List<K> keys, Function<? super K,V> f) {
-        Map<K,V> map = Maps.newHashMap();
-        for (K k : keys) {
-            map.put(k, f.apply(k));
-        }
-        return map;
+    private static String formatMegabytes(long bytes)
+    {
+        return String.valueOf(Math.round(bytes * 10.0 / (1024 * 1024)) / 10.0);
     }
 
     @ActionViewData
     public List<CvsRepository> getRepositories() throws GenericEntityException
     {
-        final List repositories = new ArrayList(getRepositoryManager().getRepositories());
-        Collections.sort(repositories);
-        return repositories;
+        return getViewModel().repositories;
     }
 
     @ActionViewData
@@ -326,20 +284,6 @@ public class AddRepository extends RepositoryActionSupport
         return super.isFetchLog();
     }
 
-    private boolean isDeletable(Repository repository)
-    {
-        try
-        {
-            return getRepositoryManager().getProjectsForRepository(repository).isEmpty();
-        }
-        catch (Exception e)
-        {
-            log.error("Error occurred while retrieving projects for repository '" + repository + "'.", e);
-            addErrorMessage(getText("admin.errors.occured.when.retrieving", repository));
-            return false;
-        }
-    }
-
     @Override
     @ActionViewData
     public Map getErrors()
@@ -349,4 +293,18 @@ public class AddRepository extends RepositoryActionSupport
         errorsMap.put("errors", super.getErrors());
         return errorsMap;
     }
+
+    /**
+     * The repositories shown on the view page and their data keyed by repository id
+     */
+    private static class RepositoriesViewModel
+    {
+        private List<CvsRepository> repositories = Collections.emptyList();
+        private final Map<String, String> viewCVSRootParameters = new HashMap<String, String>();
+        private final Map<String, String> viewCVSBaseUrls = new HashMap<String, String>();
+        private final Map<String, Collection<Project>> projects = new HashMap<String, Collection<Project>>();
+        private final Map<String, Boolean> deletable = new HashMap<String, Boolean>();
+        private final Map<String, Map<String, Object>> circuits = new HashMap<String, Map<String, Object>>();
+        private final Map<String, String> contentSizes = new HashMap<String, String>();
+    }
 }
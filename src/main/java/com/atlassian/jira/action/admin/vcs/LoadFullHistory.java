@@ -0,0 +1,45 @@
+package com.atlassian.jira.action.admin.vcs;
+
+import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
+import com.atlassian.jira.vcs.RepositoryManager;
+import com.atlassian.jira.vcs.cvsimpl.CvsRepositoryUtil;
+import com.atlassian.sal.api.websudo.WebSudoRequired;
+import org.ofbiz.core.entity.GenericEntityException;
+
+/**
+ * Loads the full history of a repository whose retention limits the revisions kept. The repository is updated in the
+ * background, so the action returns to the repositories page right away.
+ */
+@WebSudoRequired
+public class LoadFullHistory extends RepositoryActionSupport
+{
+    public LoadFullHistory(RepositoryManager repositoryManager, CvsRepositoryUtil cvsRepositoryUtil)
+    {
+        super(repositoryManager, cvsRepositoryUtil);
+    }
+
+    protected void doValidation()
+    {
+        if (getId() == null)
+        {
+            addErrorMessage(getText("admin.errors.repositories.error.retrieving"));
+        }
+    }
+
+    @RequiresXsrfCheck
+    protected String doExecute() throws Exception
+    {
+        try
+        {
+            getRepositoryManager().loadFullHistory(getId());
+        }
+        catch (GenericEntityException e)
+        {
+            log.error("Error occurred while loading the full history of the repository with id '" + getId() + "'.", e);
+            addErrorMessage(getText("admin.errors.repositories.error.retrieving"));
+            return getResult();
+        }
+
+        return getRedirect("ViewRepositories.jspa");
+    }
+}
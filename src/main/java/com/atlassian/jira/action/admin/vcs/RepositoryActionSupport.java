@@ -17,6 +17,7 @@ import com.atlassian.jira.web.action.ActionViewData;
 import com.atlassian.jira.web.action.JiraWebActionSupport;
 import com.opensymphony.util.TextUtils;
 import net.sf.statcvs.input.LogSyntaxException;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.StringUtils;
 import org.netbeans.lib.cvsclient.command.CommandException;
 import org.netbeans.lib.cvsclient.connection.AuthenticationException;
@@ -24,12 +25,16 @@ import org.netbeans.lib.cvsclient.connection.AuthenticationException;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 public class RepositoryActionSupport extends JiraWebActionSupport
 {
+    // Lines of the log sampled when checking a repository that fetches its log
+    protected static final int PROBE_MAX_LINES = 2000;
+
     protected Long id;
     private String type;
     private String name = null;
@@ -39,6 +44,9 @@ public class RepositoryActionSupport extends JiraWebActionSupport
     private String moduleName;
     private String password;
     private boolean fetchLog;
+    private boolean projectScoped;
+    private String retention;
+    private String encoding;
     private String timeout;
     private long timeoutMS = CvsRepository.CVS_OPERATION_TIMEOUT_DEFAULT;
 
@@ -85,6 +93,9 @@ public class RepositoryActionSupport extends JiraWebActionSupport
         setModuleName(cvsRepository.getModuleName());
         setPassword(cvsRepository.getPassword());
         setFetchLog(cvsRepository.fetchLog());
+        setProjectScoped(cvsRepository.isProjectScoped());
+        setRetention(cvsRepository.getRetention());
+        setEncoding(cvsRepository.getEncoding());
         setTimeoutMillis(cvsRepository.getCvsTimeout());
 
         // If the repository has the repository browser, set the base url
@@ -210,6 +221,39 @@ public class RepositoryActionSupport extends JiraWebActionSupport
         this.fetchLog = fetchLog;
     }
 
+    @ActionViewData
+    public boolean isProjectScoped()
+    {
+        return projectScoped;
+    }
+
+    public void setProjectScoped(boolean projectScoped)
+    {
+        this.projectScoped = projectScoped;
+    }
+
+    @ActionViewData
+    public String getRetention()
+    {
+        return retention;
+    }
+
+    public void setRetention(String retention)
+    {
+        this.retention = retention;
+    }
+
+    @ActionViewData
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding)
+    {
+        this.encoding = encoding;
+    }
+
     @ActionViewData
     public String getRepositoryBrowserURL()
     {
@@ -335,11 +379,24 @@ public class RepositoryActionSupport extends JiraWebActionSupport
             throws AuthenticationException, IOException, CommandException, LogSyntaxException, LockException
     {
         File logFile = new File(logFilePath);
+        // Same as the repository will use once it is saved
+        final Charset charset = CvsRepository.getCharset(StringUtils.isBlank(getEncoding()) ? CvsRepository.getLegacyEncoding(repositoryName) : getEncoding());
         // Only check if we can get the log if the user wants us to do it
         if (fetchLog)
         {
-            // Check that we can get the cvs log
-            cvsRepositoryUtil.updateCvs(logFile, cvsRoot, moduleName, password, cvsTimeout);
+            // Check that we can get the cvs log. Only a sample is fetched, fetching the whole log of a large module can
+            // take longer than the request may.
+            final File sampleFile = File.createTempFile("cvsprobe", ".log");
+            try
+            {
+                cvsRepositoryUtil.probeCvs(sampleFile, cvsRoot, moduleName, password, cvsTimeout, PROBE_MAX_LINES, charset);
+                cvsRepositoryUtil.parseCvsLogs(sampleFile, moduleName, getCvsRepositoryUtil().parseCvsRoot(cvsRoot).getRepository(), charset);
+            }
+            finally
+            {
+                FileUtils.deleteQuietly(sampleFile);
+            }
+            return;
         }
         else
         {
@@ -351,7 +408,7 @@ public class RepositoryActionSupport extends JiraWebActionSupport
         }
 
         // Check if we can parse the log (if we got here no exception was thrown and hence updating the logs went ok)
-        cvsRepositoryUtil.parseCvsLogs(logFile, moduleName, getCvsRepositoryUtil().parseCvsRoot(cvsRoot).getRepository(), repositoryName);
+        cvsRepositoryUtil.parseCvsLogs(logFile, moduleName, getCvsRepositoryUtil().parseCvsRoot(cvsRoot).getRepository(), charset);
     }
 
     protected CvsRepositoryUtil getCvsRepositoryUtil()
@@ -385,6 +442,14 @@ public class RepositoryActionSupport extends JiraWebActionSupport
         {
             addError("timeout", getText("admin.errors.cvs.invalid.timeout"));
         }
+        if (!CvsRepository.isValidRetention(getRetention()))
+        {
+            addError("retention", getText("admin.errors.cvs.invalid.retention"));
+        }
+        if (!CvsRepository.isValidEncoding(getEncoding()))
+        {
+            addError("encoding", getText("admin.errors.cvs.invalid.encoding"));
+        }
 
         if (!TextUtils.stringSet(getLogFilePath()))
         {
@@ -5,6 +5,7 @@ import com.atlassian.jira.security.xsrf.RequiresXsrfCheck;
 import com.atlassian.jira.util.LockException;
 import com.atlassian.jira.vcs.Repository;
 import com.atlassian.jira.vcs.RepositoryManager;
+import com.atlassian.jira.vcs.RepositoryTestResult;
 import com.atlassian.jira.vcs.cvsimpl.CvsRepository;
 import com.atlassian.jira.vcs.cvsimpl.CvsRepositoryUtil;
 import com.atlassian.jira.vcs.cvsimpl.ValidationException;
@@ -23,6 +24,7 @@ import java.io.IOException;
 public class RepositoryTest extends RepositoryActionSupport
 {
     private String message;
+    private boolean full;
 
     public RepositoryTest(RepositoryManager repositoryManager, CvsRepositoryUtil cvsRepositoryUtil)
     {
@@ -54,7 +56,12 @@ public class RepositoryTest extends RepositoryActionSupport
                 return getResult();
             }
 
-            if (RepositoryManager.CVS_TYPE.equals(repository.getType()))
+            if (RepositoryManager.CVS_TYPE.equals(repository.getType()) && full)
+            {
+                // Fetching and parsing the whole log can take minutes, so it is done in the background
+                getRepositoryManager().startRepositoryTest(repository.getId());
+            }
+            else if (RepositoryManager.CVS_TYPE.equals(repository.getType()))
             {
                 CvsRepository cvsRepository = (CvsRepository) repository;
                 try
@@ -132,4 +139,58 @@ public class RepositoryTest extends RepositoryActionSupport
     {
         return StringUtils.defaultString(message);
     }
+
+    public void setFull(boolean full)
+    {
+        this.full = full;
+    }
+
+    @ActionViewData
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    @Override
+    @ActionViewData
+    public String getXsrfToken()
+    {
+        return super.getXsrfToken();
+    }
+
+    /**
+     * @return the status of the last full test of the repository, empty if it has not been run
+     */
+    @ActionViewData
+    public String getFullTestStatus()
+    {
+        final RepositoryTestResult result = getFullTestResult();
+        return result == null ? "" : result.getStatus().name();
+    }
+
+    @ActionViewData
+    public String getFullTestMessage()
+    {
+        final RepositoryTestResult result = getFullTestResult();
+        return result == null ? "" : StringUtils.defaultString(result.getMessage());
+    }
+
+    @ActionViewData
+    public int getFullTestCommitCount()
+    {
+        final RepositoryTestResult result = getFullTestResult();
+        return result == null ? 0 : result.getCommitCount();
+    }
+
+    @ActionViewData
+    public String getFullTestStarted()
+    {
+        final RepositoryTestResult result = getFullTestResult();
+        return result == null ? "" : getDateTimeFormatter().format(result.getStarted());
+    }
+
+    private RepositoryTestResult getFullTestResult()
+    {
+        return getId() == null ? null : getRepositoryManager().getRepositoryTestResult(getId());
+    }
 }
\ No newline at end of file
@@ -15,6 +15,7 @@ import com.atlassian.jira.vcs.viewcvs.ViewCvsBrowser;
 import com.atlassian.jira.web.action.ActionViewData;
 import com.atlassian.sal.api.websudo.WebSudoRequired;
 import com.opensymphony.util.TextUtils;
+import org.apache.commons.lang.StringUtils;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -77,6 +78,9 @@ public class UpdateRepository extends RepositoryActionSupport
                 properties.setProperty(CvsRepository.KEY_PASSWORD, getPassword());
             }
             properties.setProperty(CvsRepository.KEY_FETCH_LOG, String.valueOf(isFetchLog()));
+            properties.setProperty(CvsRepository.KEY_PROJECT_SCOPED, String.valueOf(isProjectScoped()));
+            properties.setProperty(CvsRepository.KEY_RETENTION, StringUtils.trimToEmpty(getRetention()));
+            properties.setProperty(CvsRepository.KEY_ENCODING, StringUtils.trimToEmpty(getEncoding()));
 
             if (TextUtils.stringSet(getRepositoryBrowserURL()))
             {
@@ -0,0 +1,92 @@
+package com.atlassian.jira.action.vcs;
+
+import com.atlassian.jira.vcs.RepositoryManager;
+import com.atlassian.jira.vcs.cvsimpl.CVSCommit;
+import com.atlassian.jira.web.action.ActionViewData;
+import com.atlassian.jira.web.action.JiraWebActionSupport;
+import net.sf.statcvs.model.CvsRevision;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Searches the comments and file paths of the CVS commits referencing issues of projects the user may view the version
+ * control information of.
+ */
+public class SearchCommits extends JiraWebActionSupport
+{
+    static final int MAX_RESULTS = 100;
+
+    private final RepositoryManager repositoryManager;
+    private String query;
+    private List<CVSCommit> commits = Collections.emptyList();
+
+    public SearchCommits(RepositoryManager repositoryManager)
+    {
+        this.repositoryManager = repositoryManager;
+    }
+
+    protected String doExecute() throws Exception
+    {
+        if (StringUtils.isNotBlank(query))
+        {
+            commits = repositoryManager.searchCommits(query, MAX_RESULTS, getLoggedInUser());
+        }
+        return SUCCESS;
+    }
+
+    @ActionViewData
+    public String getQuery()
+    {
+        return StringUtils.defaultString(query);
+    }
+
+    public void setQuery(String query)
+    {
+        this.query = query;
+    }
+
+    @ActionViewData
+    public boolean isSearched()
+    {
+        return StringUtils.isNotBlank(query);
+    }
+
+    @ActionViewData
+    public boolean isTruncated()
+    {
+        return commits.size() >= MAX_RESULTS;
+    }
+
+    /**
+     * @return the matching commits, newest first
+     */
+    @ActionViewData
+    public List<Map<String, Object>> getCommits()
+    {
+        final List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(commits.size());
+        for (CVSCommit commit : commits)
+        {
+            final Map<String, Object> view = new HashMap<String, Object>();
+            view.put("repository", commit.getRepositoryName());
+            view.put("author", commit.getUsername());
+            view.put("date", getDateTimeFormatter().format(commit.getTimePerformed()));
+            view.put("comment", StringUtils.defaultString(commit.getComment()));
+
+            final List<String> files = new ArrayList<String>();
+            @SuppressWarnings ({ "unchecked" }) final Collection<CvsRevision> revisions = commit.getRevisions();
+            for (CvsRevision revision : revisions)
+            {
+                files.add(revision.getFile().getFilenameWithPath() + " " + revision.getRevision());
+            }
+            view.put("files", files);
+            result.add(view);
+        }
+        return result;
+    }
+}
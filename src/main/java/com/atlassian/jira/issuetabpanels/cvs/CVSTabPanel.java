@@ -11,20 +11,31 @@ import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.jira.util.collect.CollectionBuilder;
 import com.atlassian.jira.vcs.Repository;
+import com.atlassian.jira.vcs.RepositoryCommits;
 import com.atlassian.jira.vcs.RepositoryManager;
 import com.atlassian.jira.vcs.cvsimpl.CVSCommit;
 import com.atlassian.plugin.spring.scanner.annotation.component.Scanned;
+import com.opensymphony.util.TextUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.ofbiz.core.entity.GenericEntityException;
+import webwork.action.ActionContext;
+
+import javax.servlet.http.HttpServletRequest;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 public class CVSTabPanel extends AbstractIssueTabPanel
 {
     private static final Logger log = Logger.getLogger(CVSTabPanel.class);
+
+    /**
+     * Request parameter restricting the commits shown to those made on a branch, e.g. <code>cvsBranch=RELEASE_4_2</code>
+     */
+    static final String BRANCH_PARAMETER = "cvsBranch";
+
     private RepositoryManager repositoryManager;
     private PermissionManager permissionManager;
 
@@ -35,7 +46,8 @@ public class CVSTabPanel extends AbstractIssueTabPanel
     }
 
     /**
-     * Retrieves all of the commits for this issue from ALL of the repositories associated with the issue's project
+     * Retrieves all of the commits for this issue from ALL of the repositories associated with the issue's project,
+     * or only those made on the branch given by the {@link #BRANCH_PARAMETER} request parameter
      *
      * @param issue the issue to find the comments for.
      * @param applicationUser the user asking for the commits.
@@ -47,26 +59,36 @@ public class CVSTabPanel extends AbstractIssueTabPanel
             throw new IllegalArgumentException("Issue cannot be null.");
 
         List<IssueAction> commitActions = new ArrayList<IssueAction>();
+        // Shown above the commits, whatever their dates
+        List<IssueAction> statusActions = new ArrayList<IssueAction>();
 
-        Map<Long, Set<CVSCommit>> repositoryCommits = repositoryManager.getCommits(issue, applicationUser);
-        for (Map.Entry<Long, Set<CVSCommit>> entry : repositoryCommits.entrySet())
+        final String branch = getBranch();
+        final long deadline = System.currentTimeMillis() + repositoryManager.getLookupTimeBudget();
+        Map<Long, RepositoryCommits> repositoryCommits = repositoryManager.getCommits(issue, applicationUser, branch, deadline);
+        for (Map.Entry<Long, RepositoryCommits> entry : repositoryCommits.entrySet())
         {
             Long repositoryId = entry.getKey();
-            Set<CVSCommit> coms = entry.getValue();
+            RepositoryCommits coms = entry.getValue();
             Repository repository;
             try
             {
                 repository = repositoryManager.getRepository(repositoryId);
-                if (coms == null)
-                {
-                    commitActions.add(new GenericMessageAction(descriptor.getI18nBean().getText("admin.cvsmodules.no.index.error.message", repository.getName())));
-                }
-                else
+                switch (coms.getStatus())
                 {
-                    for (CVSCommit cvsCommit : coms)
-                    {
-                        commitActions.add(new CVSAction(descriptor, cvsCommit));
-                    }
+                    case NOT_INDEXED:
+                        statusActions.add(new GenericMessageAction(descriptor.getI18nBean().getText("admin.cvsmodules.no.index.error.message", repository.getName())));
+                        break;
+                    case TIMED_OUT:
+                        statusActions.add(new GenericMessageAction(descriptor.getI18nBean().getText("admin.cvsmodules.loading.message", repository.getName())));
+                        break;
+                    case PARTIAL:
+                        statusActions.add(new GenericMessageAction(descriptor.getI18nBean().getText("admin.cvsmodules.partial.message", repository.getName(), coms.getCommits().size())));
+                        // fall through to show the commits found
+                    default:
+                        for (CVSCommit cvsCommit : coms.getCommits())
+                        {
+                            commitActions.add(new CVSAction(descriptor, cvsCommit));
+                        }
                 }
             }
             catch (GenericEntityException e)
@@ -76,17 +98,28 @@ public class CVSTabPanel extends AbstractIssueTabPanel
         }
 
         // This is a bit of a hack to indicate that there are no commits to display
-        if (commitActions.isEmpty())
+        if (commitActions.isEmpty() && statusActions.isEmpty())
         {
-            GenericMessageAction action = new GenericMessageAction(descriptor.getI18nBean().getText("viewissue.nocommits"));
+            GenericMessageAction action = new GenericMessageAction(descriptor.getI18nBean().getText(branch == null ? "viewissue.nocommits" : "viewissue.nocommits.on.branch", TextUtils.htmlEncode(branch)));
             return CollectionBuilder.<IssueAction>newBuilder(action).asMutableList();
         }
 
         // Sort by date
         Collections.sort(commitActions, IssueActionComparator.COMPARATOR);
+        commitActions.addAll(0, statusActions);
+        if (branch != null)
+        {
+            commitActions.add(0, new GenericMessageAction(descriptor.getI18nBean().getText("viewissue.commits.on.branch", TextUtils.htmlEncode(branch))));
+        }
         return commitActions;
     }
 
+    private static String getBranch()
+    {
+        final HttpServletRequest request = ActionContext.getRequest();
+        return request == null ? null : StringUtils.trimToNull(request.getParameter(BRANCH_PARAMETER));
+    }
+
     @Override
     public boolean showPanel(Issue issue, ApplicationUser applicationUser)
     {
@@ -0,0 +1,115 @@
+package com.atlassian.jira.jql.function.cvs;
+
+import com.atlassian.jira.JiraDataType;
+import com.atlassian.jira.JiraDataTypes;
+import com.atlassian.jira.jql.operand.QueryLiteral;
+import com.atlassian.jira.jql.query.QueryCreationContext;
+import com.atlassian.jira.jql.util.JqlDateSupport;
+import com.atlassian.jira.plugin.jql.function.AbstractJqlFunction;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.util.MessageSet;
+import com.atlassian.jira.util.MessageSetImpl;
+import com.atlassian.jira.vcs.RepositoryManager;
+import com.atlassian.query.clause.TerminalClause;
+import com.atlassian.query.operand.FunctionOperand;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * JQL function returning the issues referenced by CVS commits:
+ * <code>issue in cvsCommitted("repository", "-30d", "author", "branch")</code>.
+ * <p/>
+ * Only the repository name is required, an empty name matches all repositories. The optional date filter accepts the
+ * absolute and relative dates of JQL. Empty arguments do not filter. The issues are looked up in the issue key index of
+ * each repository, so no commits are built and no comments are matched while the query runs. Across all repositories,
+ * those whose content is not loaded are skipped, and a warning names them.
+ */
+public class CvsCommittedFunction extends AbstractJqlFunction
+{
+    private static final int MAX_ARGUMENTS = 4;
+
+    private final RepositoryManager repositoryManager;
+    private final JqlDateSupport jqlDateSupport;
+
+    public CvsCommittedFunction(RepositoryManager repositoryManager, JqlDateSupport jqlDateSupport)
+    {
+        this.repositoryManager = repositoryManager;
+        this.jqlDateSupport = jqlDateSupport;
+    }
+
+    public MessageSet validate(ApplicationUser searcher, FunctionOperand operand, TerminalClause terminalClause)
+    {
+        final List<String> args = operand.getArgs();
+        final MessageSet messages = new MessageSetImpl();
+        if (args.isEmpty() || args.size() > MAX_ARGUMENTS)
+        {
+            messages.addErrorMessage(getI18n().getText("cvs.jql.function.cvscommitted.arguments", operand.getName()));
+            return messages;
+        }
+
+        final String repositoryName = StringUtils.trimToNull(args.get(0));
+        if (repositoryName != null && repositoryManager.getRepository(repositoryName) == null)
+        {
+            messages.addErrorMessage(getI18n().getText("cvs.jql.function.cvscommitted.repository", operand.getName(), repositoryName));
+        }
+        else if (repositoryName == null)
+        {
+            // The issues of repositories that are not loaded are missing from the result, which must not go unnoticed
+            final Set<String> unloadedRepositoryNames = repositoryManager.getUnloadedRepositoryNames(searcher);
+            if (!unloadedRepositoryNames.isEmpty())
+            {
+                messages.addWarningMessage(getI18n().getText("cvs.jql.function.cvscommitted.unloaded", operand.getName(), StringUtils.join(unloadedRepositoryNames, ", ")));
+            }
+        }
+        final String from = getArg(args, 1);
+        if (from != null && !jqlDateSupport.validate(from))
+        {
+            messages.addErrorMessage(getI18n().getText("cvs.jql.function.cvscommitted.date", operand.getName(), from));
+        }
+        return messages;
+    }
+
+    public List<QueryLiteral> getValues(QueryCreationContext queryCreationContext, FunctionOperand operand, TerminalClause terminalClause)
+    {
+        final List<String> args = operand.getArgs();
+        final List<QueryLiteral> literals = new ArrayList<QueryLiteral>();
+        if (args.isEmpty())
+        {
+            return literals;
+        }
+
+        final String from = getArg(args, 1);
+        final Date fromDate = from == null ? null : jqlDateSupport.convertToDate(from);
+        if (from != null && fromDate == null)
+        {
+            return literals;
+        }
+
+        // Issue keys are resolved by the issue clause, including keys of issues that have been moved since the commit
+        final Set<String> issueKeys = repositoryManager.getCommittedIssueKeys(getArg(args, 0), fromDate, getArg(args, 2), getArg(args, 3), queryCreationContext.getApplicationUser());
+        for (String issueKey : issueKeys)
+        {
+            literals.add(new QueryLiteral(operand, issueKey));
+        }
+        return literals;
+    }
+
+    public int getMinimumNumberOfExpectedArguments()
+    {
+        return 1;
+    }
+
+    public JiraDataType getDataType()
+    {
+        return JiraDataTypes.ISSUE;
+    }
+
+    private static String getArg(List<String> args, int index)
+    {
+        return index < args.size() ? StringUtils.trimToNull(args.get(index)) : null;
+    }
+}
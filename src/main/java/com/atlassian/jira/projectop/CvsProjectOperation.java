@@ -8,6 +8,7 @@ import com.atlassian.jira.security.PermissionManager;
 import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.jira.util.collect.MapBuilder;
+import com.atlassian.jira.vcs.ProjectCommitActivity;
 import com.atlassian.jira.vcs.Repository;
 import com.atlassian.jira.vcs.RepositoryManager;
 import com.atlassian.plugin.spring.scanner.annotation.component.Scanned;
@@ -30,6 +31,7 @@ public class CvsProjectOperation extends AbstractPluggableProjectOperation
 {
     private static final String CONTEXT_REPOS = "repos";
     private static final String CONTEXT_ERROR = "error";
+    private static final String CONTEXT_ACTIVITY = "activity";
 
     private static final Logger log = Logger.getLogger(CvsProjectOperation.class);
 
@@ -64,6 +66,16 @@ public class CvsProjectOperation extends AbstractPluggableProjectOperation
             });
 
             contextBuilder.add(CONTEXT_REPOS, collection);
+
+            // The activity is maintained while the repositories are updated, so it is cheap to show on every view
+            if (!collection.isEmpty() && permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, project, applicationUser))
+            {
+                final ProjectCommitActivity activity = repositoryManager.getCommitActivity(project);
+                if (!activity.isEmpty())
+                {
+                    contextBuilder.add(CONTEXT_ACTIVITY, activity);
+                }
+            }
         }
         catch (GenericEntityException e)
         {
@@ -0,0 +1,67 @@
+package com.atlassian.jira.rest.cvs;
+
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.vcs.RepositoryManager;
+import com.atlassian.jira.vcs.cvsimpl.CVSCommit;
+import com.google.gson.Gson;
+import org.apache.commons.lang.StringUtils;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Searches the comments and file paths of the CVS commits referencing issues of projects the user may view the version
+ * control information of, and returns the matching commits as JSON, newest first.
+ */
+@Path ("/search")
+@Produces (MediaType.APPLICATION_JSON)
+public class CommitSearchResource
+{
+    static final int MAX_LIMIT = 200;
+
+    private final RepositoryManager repositoryManager;
+    private final Gson gson = new Gson();
+
+    public CommitSearchResource(RepositoryManager repositoryManager)
+    {
+        this.repositoryManager = repositoryManager;
+    }
+
+    @GET
+    public Response search(@QueryParam ("q") String query, @QueryParam ("limit") @DefaultValue ("50") int limit)
+    {
+        if (StringUtils.isBlank(query))
+        {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        final ApplicationUser user = ComponentAccessor.getJiraAuthenticationContext().getLoggedInUser();
+        final List<IssueCommitsResource.CommitBean> commits = new ArrayList<IssueCommitsResource.CommitBean>();
+        for (CVSCommit commit : repositoryManager.searchCommits(query, Math.max(1, Math.min(limit, MAX_LIMIT)), user))
+        {
+            commits.add(new IssueCommitsResource.CommitBean(commit));
+        }
+        return Response.ok(gson.toJson(new SearchResultBean(query, commits))).build();
+    }
+
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    private static class SearchResultBean
+    {
+        private final String query;
+        private final List<IssueCommitsResource.CommitBean> commits;
+
+        private SearchResultBean(String query, List<IssueCommitsResource.CommitBean> commits)
+        {
+            this.query = query;
+            this.commits = commits;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.atlassian.jira.rest.cvs;
+
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.vcs.Repository;
+import com.atlassian.jira.vcs.RepositoryCommits;
+import com.atlassian.jira.vcs.RepositoryManager;
+import com.atlassian.jira.vcs.cvsimpl.CVSCommit;
+import com.atlassian.jira.vcs.cvsimpl.CvsRepository;
+import com.google.gson.Gson;
+import net.sf.statcvs.model.CvsRevision;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.ofbiz.core.entity.GenericEntityException;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Returns the CVS commits of an issue as JSON, optionally only those made on the branch given by the
+ * <code>branch</code> query parameter, together with the branches of the issue's repositories.
+ * <p/>
+ * Responses carry an ETag built from the issue key, the user's permission to view version control and the content
+ * generations of the issue's repositories. A client sending the ETag back in <code>If-None-Match</code> gets
+ * <code>304 Not Modified</code> without any commit matching being done as long as none of these have changed.
+ */
+@Path ("/issue/{issueKey}/commits")
+@Produces (MediaType.APPLICATION_JSON)
+public class IssueCommitsResource
+{
+    private static final Logger log = Logger.getLogger(IssueCommitsResource.class);
+
+    private final RepositoryManager repositoryManager;
+    private final PermissionManager permissionManager;
+    private final Gson gson = new Gson();
+
+    public IssueCommitsResource(RepositoryManager repositoryManager, PermissionManager permissionManager)
+    {
+        this.repositoryManager = repositoryManager;
+        this.permissionManager = permissionManager;
+    }
+
+    @GET
+    public Response getCommits(@PathParam ("issueKey") String issueKey, @QueryParam ("branch") String branchParameter, @Context Request request)
+    {
+        final String branch = StringUtils.trimToNull(branchParameter);
+        final ApplicationUser user = ComponentAccessor.getJiraAuthenticationContext().getLoggedInUser();
+        final Issue issue = ComponentAccessor.getIssueManager().getIssueObject(issueKey);
+        if (issue == null || !permissionManager.hasPermission(Permissions.BROWSE, issue, user))
+        {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        final boolean canViewVersionControl = permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user);
+        final EntityTag eTag = getEntityTag(issue, branch, canViewVersionControl);
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+
+        final Response.ResponseBuilder notModified = request.evaluatePreconditions(eTag);
+        if (notModified != null)
+        {
+            return notModified.cacheControl(cacheControl).build();
+        }
+
+        final List<CommitBean> commits = new ArrayList<CommitBean>();
+        final List<String> unindexedRepositories = new ArrayList<String>();
+        final List<String> loadingRepositories = new ArrayList<String>();
+        final List<String> partialRepositories = new ArrayList<String>();
+        if (canViewVersionControl)
+        {
+            final long deadline = System.currentTimeMillis() + repositoryManager.getLookupTimeBudget();
+            for (Map.Entry<Long, RepositoryCommits> entry : repositoryManager.getCommits(issue, user, branch, deadline).entrySet())
+            {
+                final RepositoryCommits.Status status = entry.getValue().getStatus();
+                if (status != RepositoryCommits.Status.COMPLETE)
+                {
+                    final Repository repository = getRepository(entry.getKey());
+                    if (repository != null)
+                    {
+                        getRepositoryNames(status, unindexedRepositories, loadingRepositories, partialRepositories).add(repository.getName());
+                    }
+                }
+                for (CVSCommit commit : entry.getValue().getCommits())
+                {
+                    commits.add(new CommitBean(commit));
+                }
+            }
+            Collections.sort(commits, CommitBean.DATE_COMPARATOR);
+        }
+
+        final Set<String> branches = canViewVersionControl ? repositoryManager.getBranchNames(issue, user) : Collections.<String>emptySet();
+        final IssueCommitsBean body = new IssueCommitsBean(issue.getKey(), branch, commits, new ArrayList<String>(branches), unindexedRepositories, loadingRepositories, partialRepositories);
+        final Response.ResponseBuilder response = Response.ok(gson.toJson(body)).cacheControl(cacheControl);
+        // An incomplete response must not be revalidated as current while the content does not change
+        return (loadingRepositories.isEmpty() && partialRepositories.isEmpty() ? response.tag(eTag) : response).build();
+    }
+
+    private static List<String> getRepositoryNames(RepositoryCommits.Status status, List<String> unindexedRepositories, List<String> loadingRepositories, List<String> partialRepositories)
+    {
+        switch (status)
+        {
+            case NOT_INDEXED:
+                return unindexedRepositories;
+            case TIMED_OUT:
+                return loadingRepositories;
+            default:
+                return partialRepositories;
+        }
+    }
+
+    private EntityTag getEntityTag(Issue issue, String branch, boolean canViewVersionControl)
+    {
+        final StringBuilder state = new StringBuilder(issue.getKey()).append('|').append(branch).append('|').append(canViewVersionControl);
+        if (canViewVersionControl)
+        {
+            // Sorted by id so that the tag does not depend on the iteration order of the repositories
+            final Map<Long, Long> generations = new TreeMap<Long, Long>();
+            for (Repository repository : repositoryManager.getRepositoriesForIssue(issue))
+            {
+                final long generation = repository instanceof CvsRepository ? ((CvsRepository) repository).getContentGeneration() : 0;
+                generations.put(repository.getId(), generation);
+            }
+            for (Map.Entry<Long, Long> generation : generations.entrySet())
+            {
+                state.append('|').append(generation.getKey()).append(':').append(generation.getValue());
+            }
+        }
+        return new EntityTag(digest(state.toString()));
+    }
+
+    private Repository getRepository(Long repositoryId)
+    {
+        try
+        {
+            return repositoryManager.getRepository(repositoryId);
+        }
+        catch (GenericEntityException e)
+        {
+            log.error("Error retrieving repository with id: " + repositoryId, e);
+            return null;
+        }
+    }
+
+    private static String digest(String state)
+    {
+        try
+        {
+            final byte[] hash = MessageDigest.getInstance("MD5").digest(state.getBytes("UTF-8"));
+            final StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    private static class IssueCommitsBean
+    {
+        private final String issueKey;
+        private final String branch;
+        private final List<CommitBean> commits;
+        private final List<String> branches;
+        private final List<String> unindexedRepositories;
+        private final List<String> loadingRepositories;
+        private final List<String> partialRepositories;
+
+        private IssueCommitsBean(String issueKey, String branch, List<CommitBean> commits, List<String> branches, List<String> unindexedRepositories, List<String> loadingRepositories, List<String> partialRepositories)
+        {
+            this.issueKey = issueKey;
+            this.branch = branch;
+            this.commits = commits;
+            this.branches = branches;
+            this.unindexedRepositories = unindexedRepositories;
+            this.loadingRepositories = loadingRepositories;
+            this.partialRepositories = partialRepositories;
+        }
+    }
+
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    static class CommitBean
+    {
+        private static final Comparator<CommitBean> DATE_COMPARATOR = new Comparator<CommitBean>()
+        {
+            public int compare(CommitBean o1, CommitBean o2)
+            {
+                return o1.date < o2.date ? -1 : (o1.date == o2.date ? 0 : 1);
+            }
+        };
+
+        private final String repository;
+        private final String author;
+        private final long date;
+        private final String branch;
+        private final String comment;
+        private final List<RevisionBean> revisions = new ArrayList<RevisionBean>();
+
+        CommitBean(CVSCommit commit)
+        {
+            this.repository = commit.getRepositoryName();
+            this.author = commit.getUsername();
+            this.date = commit.getTimePerformed().getTime();
+            this.branch = commit.getBranchName();
+            this.comment = commit.getComment();
+            @SuppressWarnings ({ "unchecked" }) final Collection<CvsRevision> commitRevisions = commit.getRevisions();
+            for (CvsRevision revision : commitRevisions)
+            {
+                revisions.add(new RevisionBean(commit, revision));
+            }
+        }
+    }
+
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    private static class RevisionBean
+    {
+        private final String file;
+        private final String revision;
+        private final String change;
+        private final int linesAdded;
+        private final int linesRemoved;
+        private final String fileLink;
+        private final String diffLink;
+
+        private RevisionBean(CVSCommit commit, CvsRevision cvsRevision)
+        {
+            this.file = cvsRevision.getFile().getFilenameWithPath();
+            this.revision = cvsRevision.getRevision();
+            this.linesAdded = cvsRevision.getLinesAdded();
+            this.linesRemoved = cvsRevision.getLinesRemoved();
+            if (cvsRevision.isDead())
+            {
+                this.change = "DEL";
+            }
+            else if (cvsRevision.isInitialRevision())
+            {
+                this.change = "ADD";
+            }
+            else if (cvsRevision.isBeginOfLog())
+            {
+                this.change = "STATCVS";
+            }
+            else
+            {
+                this.change = "MODIFY";
+            }
+
+            if (commit.hasRepositoryViewer())
+            {
+                this.fileLink = commit.getFileLink(file);
+                this.diffLink = commit.getDiffLink(file, revision);
+            }
+            else
+            {
+                this.fileLink = null;
+                this.diffLink = null;
+            }
+        }
+    }
+}
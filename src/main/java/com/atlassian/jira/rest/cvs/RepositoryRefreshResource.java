@@ -0,0 +1,87 @@
+package com.atlassian.jira.rest.cvs;
+
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.permission.GlobalPermissionKey;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.vcs.Repository;
+import com.atlassian.jira.vcs.RepositoryManager;
+import com.google.gson.Gson;
+import org.apache.log4j.Logger;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lets a CVS <code>loginfo</code> hook tell JIRA about a commit, so that the affected repositories are updated right
+ * away instead of on the next run of the VCS service. For example, in <code>CVSROOT/loginfo</code>:
+ * <pre>
+ * ALL curl -s -u jira-cvs:secret -d "module=%p" https://jira.example.com/rest/cvs/1.0/refresh
+ * </pre>
+ * Only administrators may request a refresh.
+ */
+@Path ("/refresh")
+@Produces (MediaType.APPLICATION_JSON)
+public class RepositoryRefreshResource
+{
+    private static final Logger log = Logger.getLogger(RepositoryRefreshResource.class);
+
+    private final RepositoryManager repositoryManager;
+    private final Gson gson = new Gson();
+
+    public RepositoryRefreshResource(RepositoryManager repositoryManager)
+    {
+        this.repositoryManager = repositoryManager;
+    }
+
+    @POST
+    @Consumes (MediaType.APPLICATION_FORM_URLENCODED)
+    public Response refresh(@FormParam ("module") String moduleName, @FormParam ("path") List<String> changedPaths)
+    {
+        final ApplicationUser user = ComponentAccessor.getJiraAuthenticationContext().getLoggedInUser();
+        if (user == null)
+        {
+            return Response.status(Response.Status.UNAUTHORIZED).build();
+        }
+        if (!ComponentAccessor.getGlobalPermissionManager().hasPermission(GlobalPermissionKey.ADMINISTER, user))
+        {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        if (moduleName == null && (changedPaths == null || changedPaths.isEmpty()))
+        {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        final Collection<Repository> scheduled = repositoryManager.scheduleRefresh(moduleName, changedPaths);
+        final List<String> repositoryNames = new ArrayList<String>();
+        for (Repository repository : scheduled)
+        {
+            repositoryNames.add(repository.getName());
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Refresh requested by '" + user.getName() + "' for module '" + moduleName + "' - queued " + repositoryNames + ".");
+        }
+
+        final Response.Status status = repositoryNames.isEmpty() ? Response.Status.OK : Response.Status.ACCEPTED;
+        return Response.status(status).entity(gson.toJson(new RefreshBean(repositoryNames))).build();
+    }
+
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    private static class RefreshBean
+    {
+        private final List<String> repositories;
+
+        private RefreshBean(List<String> repositories)
+        {
+            this.repositories = repositories;
+        }
+    }
+}
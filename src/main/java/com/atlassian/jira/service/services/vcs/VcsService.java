@@ -11,6 +11,7 @@ import com.atlassian.configurable.ObjectConfigurationImpl;
 import com.atlassian.jira.component.ComponentAccessor;
 import com.atlassian.jira.config.properties.SystemPropertyKeys;
 import com.atlassian.jira.service.AbstractService;
+import com.atlassian.jira.vcs.DefaultRepositoryManager;
 import com.atlassian.jira.vcs.RepositoryManager;
 import com.atlassian.sal.api.scheduling.PluginJob;
 import com.opensymphony.module.propertyset.PropertySet;
@@ -46,7 +47,8 @@ public class VcsService implements PluginJob
         }
         catch (OutOfMemoryError e)
         {
-            log.error("OutOfMemoryError while updating the repositories. Start the app server with more memory (see '-Xmx' parameter of the 'java' command.)", e);
+            log.error("OutOfMemoryError while updating the repositories. Lower the memory budget of the repositories (see the '"
+                    + DefaultRepositoryManager.CONTENT_BUDGET_PROPERTY + "' system property) or start the app server with more memory (see '-Xmx' parameter of the 'java' command.)", e);
         }
 
         log.debug("VcsService service finished.");
@@ -11,9 +11,15 @@ import com.atlassian.crowd.embedded.api.User;
 import com.atlassian.event.api.EventListener;
 import com.atlassian.event.api.EventPublisher;
 import com.atlassian.jira.association.NodeAssociationStore;
+import com.atlassian.jira.cluster.ClusterManager;
 import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.config.util.JiraHome;
 import com.atlassian.jira.entity.EntityUtils;
 import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.event.ProjectDeletedEvent;
+import com.atlassian.jira.event.ProjectUpdatedEvent;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
 import com.atlassian.jira.exception.DataAccessException;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.changehistory.ChangeHistoryManager;
@@ -30,8 +36,11 @@ import com.atlassian.jira.util.JiraKeyUtils;
 import com.atlassian.jira.util.LockException;
 import com.atlassian.jira.util.ObjectUtils;
 import com.atlassian.jira.vcs.cvsimpl.CVSCommit;
+import com.atlassian.jira.vcs.cvsimpl.CommitActivity;
 import com.atlassian.jira.vcs.cvsimpl.CvsRepository;
 import com.atlassian.jira.vcs.cvsimpl.CvsRepositoryUtil;
+import com.atlassian.jira.vcs.cvsimpl.IssueCommitMatch;
+import com.atlassian.jira.vcs.cvsimpl.LogPosition;
 import com.atlassian.plugin.spring.scanner.annotation.component.Scanned;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.atlassian.sal.api.lifecycle.LifecycleAware;
@@ -41,6 +50,9 @@ import com.google.common.collect.Collections2;
 import com.opensymphony.module.propertyset.PropertySet;
 import net.sf.statcvs.input.LogSyntaxException;
 import net.sf.statcvs.model.Commit;
+import net.sf.statcvs.model.CvsContent;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.netbeans.lib.cvsclient.command.CommandException;
 import org.netbeans.lib.cvsclient.connection.AuthenticationException;
@@ -51,25 +63,89 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 
 public class DefaultRepositoryManager implements RepositoryManager, InitializingBean, DisposableBean, LifecycleAware
 {
     private static final Logger log = Logger.getLogger(DefaultRepositoryManager.class);
+
+    /**
+     * System property that turns off sharing fetched logs between the nodes of a JIRA cluster
+     */
+    public static final String SHARED_INDEX_DISABLED_PROPERTY = "jira.cvs.cluster.sharedindex.disabled";
+    private static final String SHARED_INDEX_DIRECTORY = "caches" + File.separator + "cvs";
+    // The node updating the repositories keeps its lease as long as it runs the service at least every other cycle
+    private static final long SHARED_INDEX_LEASE_DURATION = 2 * VCS_SERVICE_DELAY;
+    private static final int ISSUE_REPOSITORIES_CACHE_SIZE = 5000;
+    // Issues moved and associations changed on other cluster nodes are picked up after this long
+    private static final long ISSUE_REPOSITORIES_CACHE_TTL = 5 * 60 * 1000L;
+
+    /**
+     * System property with the time in milliseconds the commits of an issue are looked up for in its repositories
+     */
+    public static final String LOOKUP_TIME_BUDGET_PROPERTY = "jira.cvs.lookup.budget";
+    private static final long LOOKUP_TIME_BUDGET_DEFAULT = 5000L;
+    private static final int LOOKUP_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    // When all threads are busy and the queue is full, lookups run on the request thread
+    private static final int LOOKUP_QUEUE_SIZE = 100;
+
+    /**
+     * System property that turns on loading the content of repositories on demand: the log of a repository is only
+     * parsed when the repository is first queried
+     */
+    public static final String LAZY_CONTENT_PROPERTY = "jira.cvs.content.lazy";
+    /**
+     * System property with the budget in megabytes of the content of all repositories. When the estimated size of the
+     * loaded contents exceeds it, the least recently used contents are unloaded and loaded again on demand. Defaults to
+     * a quarter of the maximum heap size.
+     */
+    public static final String CONTENT_BUDGET_PROPERTY = "jira.cvs.content.budget";
+    // Commits usually notify once per changed directory, so wait a little to refresh once for all of them
+    private static final long REFRESH_DEBOUNCE_DELAY = 15 * 1000L;
+
+    private static final Comparator<CVSCommit> NEWEST_FIRST = new Comparator<CVSCommit>()
+    {
+        public int compare(CVSCommit o1, CVSCommit o2)
+        {
+            return o2.getTimePerformed().compareTo(o1.getTimePerformed());
+        }
+    };
+
     private final NodeAssociationStore nodeAssociationStore;
     private final PluginScheduler pluginScheduler;
     private PermissionManager permissionManager;
@@ -79,7 +155,62 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
     private final OfBizDelegator ofBizDelegator;
     private final EventPublisher eventPublisher;
     private final CvsRepositoryUtil cvsRepositoryUtil;
-    private final Map<Long, Repository> repositories;
+    private final ConcurrentMap<Long, Repository> repositories;
+    private final ClusterManager clusterManager;
+    private final SharedRepositoryIndex sharedIndex;
+
+    /**
+     * Cache of issue id -> previous issue keys and the repositories of the issue's current and previous projects
+     */
+    private final Map<Long, IssueRepositories> issueRepositories;
+
+    /**
+     * Cache of project id -> commit activity of the project, with the state of the repositories it was computed from
+     */
+    private final Map<Long, CachedCommitActivity> projectActivities = new ConcurrentHashMap<Long, CachedCommitActivity>();
+
+    /**
+     * Runs the refreshes requested through {@link #scheduleRefresh(String, Collection)} and by the log file watcher
+     */
+    private final ScheduledExecutorService refreshExecutor;
+    private final Map<Long, ScheduledFuture<?>> pendingRefreshes = new ConcurrentHashMap<Long, ScheduledFuture<?>>();
+
+    /**
+     * Runs the full repository tests, see {@link #startRepositoryTest(Long)}
+     */
+    private final ExecutorService testExecutor;
+
+    /**
+     * Looks up the commits of an issue in its repositories concurrently, shared by all requests
+     */
+    private final ThreadPoolExecutor lookupExecutor;
+
+    /**
+     * Loads the contents skipped by queries across repositories, see {@link #useLoadedContent(CvsRepository)}
+     */
+    private final ExecutorService contentLoader;
+    private final Set<Long> pendingContentLoads = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * Whether the content of the repositories is only loaded when they are queried, see {@link #LAZY_CONTENT_PROPERTY}
+     */
+    private final boolean lazyContent;
+
+    /**
+     * The repositories whose content is loaded, kept within the budget of {@link #CONTENT_BUDGET_PROPERTY}
+     */
+    private final RepositoryContentCache contentCache;
+    private final Map<Long, RepositoryTestResult> testResults = new ConcurrentHashMap<Long, RepositoryTestResult>();
+
+    /**
+     * Skips the repositories whose updates keep failing, e.g. because their CVS server is down
+     */
+    private final RepositoryCircuitBreaker circuitBreaker = new RepositoryCircuitBreaker();
+
+    /**
+     * Watches the log files of the repositories that do not fetch their log, null if file watching is not available
+     */
+    private final LogFileWatcher logFileWatcher;
 
 
     @Autowired
@@ -87,25 +218,122 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
             PluginScheduler pluginScheduler, PermissionManager permissionManager,
             ChangeHistoryManager changeHistoryManager, ProjectManager projectManager,
             final ProjectFactory projectFactory, EventPublisher eventPublisher,@ComponentImport CvsRepositoryUtil cvsRepositoryUtil) throws GenericEntityException
+    {
+        this(ofBizDelegator, pluginScheduler, permissionManager, changeHistoryManager, projectManager, projectFactory, eventPublisher,
+                cvsRepositoryUtil, ComponentAccessor.getComponent(NodeAssociationStore.class), ComponentAccessor.getComponent(ClusterManager.class),
+                createSharedIndex(ComponentAccessor.getComponent(ClusterManager.class)));
+    }
+
+    /**
+     * Creates a manager with the given cluster components, so that tests can run several nodes sharing an index.
+     *
+     * @param sharedIndex the index shared with the other cluster nodes, null if the logs are not shared
+     */
+    DefaultRepositoryManager(OfBizDelegator ofBizDelegator, PluginScheduler pluginScheduler, PermissionManager permissionManager,
+            ChangeHistoryManager changeHistoryManager, ProjectManager projectManager, ProjectFactory projectFactory,
+            EventPublisher eventPublisher, CvsRepositoryUtil cvsRepositoryUtil, NodeAssociationStore nodeAssociationStore,
+            ClusterManager clusterManager, SharedRepositoryIndex sharedIndex) throws GenericEntityException
     {
         this.projectFactory = projectFactory;
         this.cvsRepositoryUtil = cvsRepositoryUtil;
-        this.nodeAssociationStore = ComponentAccessor.getComponent(NodeAssociationStore.class);
+        this.nodeAssociationStore = nodeAssociationStore;
         this.ofBizDelegator = ofBizDelegator;
         this.pluginScheduler = pluginScheduler;
         this.permissionManager = permissionManager;
         this.changeHistoryManager = changeHistoryManager;
         this.projectManager = projectManager;
         this.eventPublisher = eventPublisher;
+        this.clusterManager = clusterManager;
+        this.sharedIndex = sharedIndex;
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "cvs-repository-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.testExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "cvs-repository-test");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.lookupExecutor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(LOOKUP_QUEUE_SIZE), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "cvs-commit-lookup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        lookupExecutor.allowCoreThreadTimeOut(true);
+        this.contentLoader = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, "cvs-content-load");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.lazyContent = Boolean.getBoolean(LAZY_CONTENT_PROPERTY);
+        final Long contentBudget = Long.getLong(CONTENT_BUDGET_PROPERTY);
+        this.contentCache = new RepositoryContentCache(contentBudget == null ? Runtime.getRuntime().maxMemory() / 4 : contentBudget * 1024 * 1024);
+        this.logFileWatcher = createLogFileWatcher();
 
         // Initialize cache
-        this.repositories = new HashMap<Long, Repository>();
+        this.repositories = new ConcurrentHashMap<Long, Repository>();
+        this.issueRepositories = Collections.synchronizedMap(new LinkedHashMap<Long, IssueRepositories>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, IssueRepositories> eldest)
+            {
+                return size() > ISSUE_REPOSITORIES_CACHE_SIZE;
+            }
+        });
 
         // Load the cache with all the repositories
         refresh();
     }
 
 
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    @EventListener
+    public void onIssueEvent(final IssueEvent event)
+    {
+        final Long eventTypeId = event.getEventTypeId();
+        if (EventType.ISSUE_MOVED_ID.equals(eventTypeId) || EventType.ISSUE_DELETED_ID.equals(eventTypeId))
+        {
+            issueRepositories.remove(event.getIssue().getId());
+        }
+    }
+
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    @EventListener
+    public void onProjectUpdated(final ProjectUpdatedEvent event)
+    {
+        // The project key may have changed, which changes how previous issue keys resolve to repositories
+        issueRepositories.clear();
+        projectActivities.remove(event.getProject().getId());
+    }
+
+    @SuppressWarnings ({ "UnusedDeclaration" })
+    @EventListener
+    public void onProjectDeleted(final ProjectDeletedEvent event)
+    {
+        issueRepositories.clear();
+        projectActivities.remove(event.getId());
+    }
+
     @SuppressWarnings ({ "UnusedDeclaration" })
     @EventListener
     public void onClearCache(final ClearCacheEvent event)
@@ -120,6 +348,71 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
         }
     }
 
+    /**
+     * Creates the index shared with the other nodes if JIRA is running as a cluster.
+     *
+     * @return the shared index, null if JIRA is not clustered or sharing is disabled
+     */
+    private static SharedRepositoryIndex createSharedIndex(ClusterManager clusterManager)
+    {
+        if (clusterManager == null || !clusterManager.isClustered())
+        {
+            return null;
+        }
+        if (Boolean.getBoolean(SHARED_INDEX_DISABLED_PROPERTY))
+        {
+            log.info("Sharing of CVS logs between cluster nodes disabled by '" + SHARED_INDEX_DISABLED_PROPERTY + "' property.");
+            return null;
+        }
+
+        final JiraHome jiraHome = ComponentAccessor.getComponent(JiraHome.class);
+        return new SharedRepositoryIndex(new File(jiraHome.getSharedHome(), SHARED_INDEX_DIRECTORY));
+    }
+
+    private LogFileWatcher createLogFileWatcher()
+    {
+        try
+        {
+            return new LogFileWatcher(new LogFileWatcher.Listener()
+            {
+                public void logFileChanged(Long repositoryId)
+                {
+                    scheduleRefresh(repositoryId);
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            log.warn("Log files maintained outside of JIRA will only be parsed by the VCS service: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Points the log file watcher at the log files of the repositories that do not fetch their log.
+     */
+    private void watchLogFiles()
+    {
+        if (logFileWatcher == null)
+        {
+            return;
+        }
+
+        final Map<Long, File> logFiles = new HashMap<Long, File>();
+        for (Repository repository : getRepositories())
+        {
+            if (repository instanceof CvsRepository)
+            {
+                final CvsRepository cvsRepository = (CvsRepository) repository;
+                if (!cvsRepository.fetchLog() && StringUtils.isNotBlank(cvsRepository.getCvsLogFilePath()))
+                {
+                    logFiles.put(cvsRepository.getId(), new File(cvsRepository.getCvsLogFilePath()));
+                }
+            }
+        }
+        logFileWatcher.setWatchedFiles(logFiles);
+    }
+
     private void loadRepositories()
     {
         @SuppressWarnings ({ "unchecked" }) List<GenericValue> vcsRepositories = ofBizDelegator.findAll("VersionControl");
@@ -190,14 +483,15 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
             return Collections.emptyList();
         }
 
-        return Collections2.transform(projectGVs, new Function<GenericValue, Project>()
+        // Copied so that the projects are only created once rather than on every iteration
+        return Collections.unmodifiableList(new ArrayList<Project>(Collections2.transform(projectGVs, new Function<GenericValue, Project>()
         {
             @Override
             public Project apply(@Nullable final GenericValue projectGV)
             {
                 return projectFactory.getProject(projectGV);
             }
-        });
+        })));
     }
 
     /**
@@ -229,19 +523,25 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
     public Repository getRepository(Long id)
     {
         // Check the cache
-        if (repositories.containsKey(id))
+        final Repository cached = repositories.get(id);
+        if (cached != null)
         {
             // If we have the repository cached return the cached one
-            return repositories.get(id);
+            return cached;
         }
 
         // The repository is not cached, retrieve it from the database
         final GenericValue versionControlGV = getRepositoryGV(id);
+        if (versionControlGV == null)
+        {
+            // The repository has been removed, e.g. while a refresh of it was pending
+            return null;
+        }
         final Repository repository = getRepository(versionControlGV);
 
-        // Cache the repository
-        repositories.put(id, repository);
-        return repository;
+        // Cache the repository, unless another thread has just cached it: all threads have to share the same instance
+        final Repository existing = repositories.putIfAbsent(id, repository);
+        return existing != null ? existing : repository;
     }
 
     private GenericValue getRepositoryGV(Long id)
@@ -284,6 +584,11 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
     }
 
     public Map<Long, Set<CVSCommit>> getCommits(Issue issue, ApplicationUser applicationUser)
+    {
+        return getCommits(issue, applicationUser, null);
+    }
+
+    public Map<Long, Set<CVSCommit>> getCommits(Issue issue, ApplicationUser applicationUser, String branch)
     {
         if (issue == null)
         {
@@ -296,179 +601,752 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
             return Collections.emptyMap();
         }
 
-        return getAllCommitsInAllIssueRepositories(issue);
+        return getAllCommitsInAllIssueRepositories(issue, branch);
     }
 
-    /**
-     * Adds all commits for the given issue.  This means going through previous issue keys and getting all the
-     * commits for those issues, even for repositories that the prvs issue's projects may have been linked to.
-     *
-     * Note that if the previousIssueKeys returns an empty list (which will be the case most of the times), no
-     * additional work is done.
-     *
-     * @param issue the issue to get commits for
-     * @return Returns a map of (repository id -> Set of {@link com.atlassian.jira.vcs.cvsimpl.CVSCommit}) with all
-     * the passed issue's associated commits.
-     */
-    private Map<Long, Set<CVSCommit>> getAllCommitsInAllIssueRepositories(Issue issue)
+    public Map<Long, RepositoryCommits> getCommits(Issue issue, ApplicationUser applicationUser, String branch, long deadline)
     {
-        Collection<String> previousIssueKeys = changeHistoryManager.getPreviousIssueKeys(issue.getId());
-        Set<Repository> repositories = getAllRepositories(issue, previousIssueKeys);
-
-        Collection<String> allIssueKeys = new LinkedHashSet<String>();
-        allIssueKeys.addAll(previousIssueKeys);
-        allIssueKeys.add(issue.getKey());
+        if (issue == null)
+        {
+            throw new IllegalArgumentException("Issue cannot be null.");
+        }
 
-        Map<Long, Set<CVSCommit>> repositoryCommits = new HashMap<Long, Set<CVSCommit>>();
-        //for each repository, check for commits for each issue key.
-        for (Repository repository : repositories)
+        if (!permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue,  applicationUser))
         {
-            for (String issueKey : allIssueKeys)
-            {
-                mapCommitsToRepository(repository, issueKey, repositoryCommits);
-            }
+            // If the user does not have the required permission, do not return any information.
+            return Collections.emptyMap();
         }
 
-        return repositoryCommits;
+        return lookupCommits(issue, branch, deadline);
     }
 
-    private Set<Repository> getAllRepositories(Issue issue, Collection<String> previousIssueKeys)
+    public long getLookupTimeBudget()
     {
-        Set<Repository> repositories = new HashSet<Repository>();
-        try
-        {
-            repositories.addAll(getRepositoriesForProject(issue.getProject()));
-
-            //lookup the repositories for each previous issuekey
-            for (String issueKey : previousIssueKeys)
-            {
-                String projectKey = JiraKeyUtils.getProjectKeyFromIssueKey(issueKey);
-                Project project = projectManager.getProjectObjByKey(projectKey);
-                //the project may no longer exist.
-                if (project != null)
-                {
-                    Collection<Repository> repos = getRepositoriesForProject(project.getGenericValue());
-                    if (repos != null)
-                    {
-                        repositories.addAll(repos);
-                    }
-                }
-            }
-        }
-        catch (GenericEntityException e)
-        {
-            log.error("Error retrieving project repositories",e);
-        }
-        return repositories;
+        return Long.getLong(LOOKUP_TIME_BUDGET_PROPERTY, LOOKUP_TIME_BUDGET_DEFAULT);
     }
 
-    private void mapCommitsToRepository(Repository repository, String issueKey, Map<Long, Set<CVSCommit>> repositoryCommits)
+    public Set<String> getBranchNames(Issue issue, ApplicationUser applicationUser)
     {
-        try
-        {
-            List<Commit> coms = repository.getCommitsForIssue(issueKey);
-            mergeCommitsForRepository(repositoryCommits, repository, coms);
-        }
-        catch (RepositoryException e)
+        if (issue == null)
         {
-            log.error("Error while retrieving commits from the repository", e);
+            throw new IllegalArgumentException("Issue cannot be null.");
         }
-    }
 
-    private void mergeCommitsForRepository(Map<Long, Set<CVSCommit>> repositoryCommits, Repository repository, List<Commit> coms)
-    {
-        final Long repositoryId = repository.getId();
-        //there's no mapping yet for this repository.
-        if(!repositoryCommits.containsKey(repositoryId) || repositoryCommits.get(repositoryId) == null)
+        final Set<String> branchNames = new TreeSet<String>();
+        if (!permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, applicationUser))
         {
-            repositoryCommits.put(repositoryId, transformCommits(repository, coms));
+            return branchNames;
         }
-        else
+        for (Long repositoryId : getIssueRepositories(issue).repositoryIds)
         {
-            final Collection<CVSCommit> commits = repositoryCommits.get(repositoryId);
-            final Set<CVSCommit> cvsCommits = transformCommits(repository, coms);
-            if(cvsCommits != null)
+            final Repository repository = getRepository(repositoryId);
+            if (repository instanceof CvsRepository)
             {
-                commits.addAll(cvsCommits);
+                final CvsRepository loaded = useLoadedContent((CvsRepository) repository);
+                final Set<String> repositoryBranchNames = loaded == null ? null : loaded.getBranchNames();
+                if (repositoryBranchNames != null)
+                {
+                    branchNames.addAll(repositoryBranchNames);
+                }
             }
         }
+        return branchNames;
     }
 
-    private Set<CVSCommit> transformCommits(Repository repository, List<Commit> coms)
+    public List<CVSCommit> getCommitsByAuthor(String author, Date from, Date to, ApplicationUser applicationUser)
     {
-        if(coms == null)
+        if (author == null)
         {
-            //the commit log has not yet been parsed for this repository
-            return null;
+            throw new IllegalArgumentException("Author cannot be null.");
         }
 
-        //actually a set doesn't really help here, because the underlying Commit in CVSCommit doesn't provide equals().
-        // Using a set anyway just in the hope that Commit will implement this at some stage in the future.
-        final Set<CVSCommit> commits = new HashSet<CVSCommit>();
-        for (Commit com : coms)
+        final List<CVSCommit> commits = new ArrayList<CVSCommit>();
+        for (Repository repository : getRepositories())
         {
-            commits.add(new CVSCommit(com, repository));
+            if (!(repository instanceof CvsRepository))
+            {
+                continue;
+            }
+            final Set<String> projectKeys = getVisibleProjectKeys(repository, applicationUser);
+            if (projectKeys.isEmpty())
+            {
+                continue;
+            }
+            final CvsRepository loaded = useLoadedContent((CvsRepository) repository);
+            final List<Commit> authorCommits = loaded == null ? null : loaded.getCommitsByAuthor(author, from, to);
+            if (authorCommits != null)
+            {
+                for (Commit commit : authorCommits)
+                {
+                    if (referencesProject(commit, projectKeys))
+                    {
+                        commits.add(new CVSCommit(commit, repository));
+                    }
+                }
+            }
         }
+
+        Collections.sort(commits, NEWEST_FIRST);
         return commits;
     }
 
-    public Repository createRepository(String type, String name, String description, Properties properties) throws Exception
+    public Set<String> getCommittedIssueKeys(String repositoryName, Date from, String author, String branch, ApplicationUser applicationUser)
     {
-        if (CVS_TYPE.equals(type))
+        final Set<String> issueKeys = new HashSet<String>();
+        final Set<String> skippedRepositoryNames = new TreeSet<String>();
+        for (Repository repository : getRepositories())
         {
-            HashMap<String, Object> fields = new HashMap<String, Object>();
-            fields.put("type", type);
-            fields.put("name", name);
-            fields.put("description", description);
-
-            GenericValue repositoryRecord = EntityUtils.createValue("VersionControl", fields);
-
-            PropertySet propertySet = OFBizPropertyUtils.getPropertySet(repositoryRecord);
+            if (!(repository instanceof CvsRepository) || (repositoryName != null && !repositoryName.equals(repository.getName())))
+            {
+                continue;
+            }
 
-            persistProperties(properties, propertySet);
+            final Set<String> projectKeys = getVisibleProjectKeys(repository, applicationUser);
+            if (projectKeys.isEmpty())
+            {
+                continue;
+            }
 
-            // Ensure that we do not modify the repositries map by more than
-            // one thread at a time
-            synchronized (repositories)
+            // A repository named explicitly is loaded like for a lookup of its own, the answer must be complete
+            final CvsRepository loaded = repositoryName != null ? useContent((CvsRepository) repository) : useLoadedContent((CvsRepository) repository);
+            final Set<String> committedIssueKeys = loaded == null ? null : loaded.getCommittedIssueKeys(from, author, branch);
+            if (committedIssueKeys == null)
             {
-                // If this is the first repository create the VCS Update Service
-                if (repositories.isEmpty())
+                skippedRepositoryNames.add(repository.getName());
+            }
+            else
+            {
+                for (String issueKey : committedIssueKeys)
                 {
-                    createRepositoryUpdateService();
+                    if (projectKeys.contains(JiraKeyUtils.getProjectKeyFromIssueKey(issueKey)))
+                    {
+                        issueKeys.add(issueKey);
+                    }
                 }
-
-                // Load the repository into the cache
-                return getRepository(repositoryRecord.getLong("id"));
             }
         }
-        else
+        if (!skippedRepositoryNames.isEmpty())
         {
-            throw new IllegalArgumentException("Unhandled VCS provider type " + type);
+            log.warn("Committed issues do not include the repositories " + skippedRepositoryNames + " as their content is not loaded yet.");
         }
+        return issueKeys;
     }
 
-    private void persistProperties(Properties properties, PropertySet propertySet)
+    public Set<String> getUnloadedRepositoryNames(ApplicationUser applicationUser)
     {
-        for (final Object o : properties.keySet())
+        final Set<String> repositoryNames = new TreeSet<String>();
+        for (Repository repository : getRepositories())
         {
-            String key = (String) o;
-            propertySet.setString(key, properties.getProperty(key));
+            if (repository instanceof CvsRepository && !((CvsRepository) repository).isContentLoaded() && !getVisibleProjectKeys(repository, applicationUser).isEmpty())
+            {
+                repositoryNames.add(repository.getName());
+            }
         }
+        return repositoryNames;
     }
 
-    private void createRepositoryUpdateService()
-    {
-        final RepositoryManager repositoryManager = (RepositoryManager) this;
-        pluginScheduler.scheduleJob(VCS_SERVICE_NAME, VcsService.class, new HashMap<String, Object>() {{
-            put(VcsService.REPOSITORY_MANAGER_KEY, repositoryManager); }}, new Date(), VCS_SERVICE_DELAY);
-    }
-
-    private void removeRepositoryUpdateService()
+    public List<CVSCommit> searchCommits(String query, int limit, ApplicationUser applicationUser)
     {
-        try {
-            pluginScheduler.unscheduleJob(VCS_SERVICE_NAME);
-        } catch (IllegalArgumentException e) {
-            // Swallow illegal argument exception in case this service has already been removed.
+        if (query == null)
+        {
+            throw new IllegalArgumentException("Query cannot be null.");
+        }
+
+        final List<CVSCommit> commits = new ArrayList<CVSCommit>();
+        for (Repository repository : getRepositories())
+        {
+            if (!(repository instanceof CvsRepository))
+            {
+                continue;
+            }
+            final Set<String> projectKeys = getVisibleProjectKeys(repository, applicationUser);
+            if (projectKeys.isEmpty())
+            {
+                continue;
+            }
+            final CvsRepository loaded = useLoadedContent((CvsRepository) repository);
+            final List<Commit> matchingCommits = loaded == null ? null : loaded.searchCommits(query);
+            if (matchingCommits != null)
+            {
+                // The commits are sorted by date, only the newest visible ones can make it into the result
+                int added = 0;
+                for (int i = matchingCommits.size() - 1; i >= 0 && added < limit; i--)
+                {
+                    final Commit commit = matchingCommits.get(i);
+                    if (referencesProject(commit, projectKeys))
+                    {
+                        commits.add(new CVSCommit(commit, repository));
+                        added++;
+                    }
+                }
+            }
+        }
+
+        Collections.sort(commits, NEWEST_FIRST);
+        return commits.size() > limit ? new ArrayList<CVSCommit>(commits.subList(0, limit)) : commits;
+    }
+
+    public ProjectCommitActivity getCommitActivity(Project project) throws GenericEntityException
+    {
+        final long now = System.currentTimeMillis();
+        final List<CvsRepository> projectRepositories = new ArrayList<CvsRepository>();
+        // The activity changes when a repository is updated or the week changes
+        final StringBuilder state = new StringBuilder().append(now / CommitActivity.WEEK);
+        for (Repository repository : getRepositoriesForProject(project.getGenericValue()))
+        {
+            if (repository instanceof CvsRepository)
+            {
+                final CvsRepository cvsRepository = (CvsRepository) repository;
+                projectRepositories.add(cvsRepository);
+                // A repository skipped because its content was not loaded adds to the activity once it is loaded
+                state.append('|').append(cvsRepository.getId()).append(':').append(cvsRepository.getContentGeneration())
+                        .append(cvsRepository.isContentLoaded() ? "" : ":unloaded");
+            }
+        }
+
+        final CachedCommitActivity cached = projectActivities.get(project.getId());
+        if (cached != null && cached.state.equals(state.toString()))
+        {
+            return cached.activity;
+        }
+
+        final Set<String> projectKeys = getProjectKeys(Collections.singleton(project));
+        CommitActivity activity = CommitActivity.EMPTY;
+        for (CvsRepository repository : projectRepositories)
+        {
+            final CvsRepository loaded = useLoadedContent(repository);
+            if (loaded != null)
+            {
+                activity = activity.merge(loaded.getCommitActivity(projectKeys));
+            }
+        }
+        final ProjectCommitActivity projectActivity = new ProjectCommitActivity(activity, now);
+        projectActivities.put(project.getId(), new CachedCommitActivity(state.toString(), projectActivity));
+        return projectActivity;
+    }
+
+    /**
+     * Returns the keys of the projects associated with the repository in which the user may view the version control
+     * information. The keys include the previous keys of the projects, so commits made before a project key changed
+     * remain visible.
+     *
+     * @return the visible project keys, empty if the user may not view any project of the repository
+     */
+    private Set<String> getVisibleProjectKeys(Repository repository, ApplicationUser applicationUser)
+    {
+        try
+        {
+            final List<Project> visibleProjects = new ArrayList<Project>();
+            for (Project project : getProjectsForRepository(repository))
+            {
+                if (permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, project, applicationUser))
+                {
+                    visibleProjects.add(project);
+                }
+            }
+            return getProjectKeys(visibleProjects);
+        }
+        catch (GenericEntityException e)
+        {
+            log.error("Error occurred while retrieving projects for repository '" + repository.getName() + "'.", e);
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * @return true if the comment of the commit references an issue of one of the given projects
+     */
+    private static boolean referencesProject(Commit commit, Set<String> projectKeys)
+    {
+        if (commit.getComment() == null)
+        {
+            return false;
+        }
+        // Comments moved out of the heap are replaced by a placeholder that still contains their issue keys
+        @SuppressWarnings ({ "unchecked" }) final List<String> issueKeys = JiraKeyUtils.getIssueKeysFromString(commit.getComment());
+        for (String issueKey : issueKeys)
+        {
+            if (projectKeys.contains(JiraKeyUtils.getProjectKeyFromIssueKey(issueKey)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Collection<Repository> getRepositoriesForIssue(Issue issue)
+    {
+        if (issue == null)
+        {
+            throw new IllegalArgumentException("Issue cannot be null.");
+        }
+
+        final List<Repository> issueRepositories = new ArrayList<Repository>();
+        for (Long repositoryId : getIssueRepositories(issue).repositoryIds)
+        {
+            final Repository repository = getRepository(repositoryId);
+            if (repository != null)
+            {
+                issueRepositories.add(repository);
+            }
+        }
+        return issueRepositories;
+    }
+
+    /**
+     * Adds all commits for the given issue.  This means going through previous issue keys and getting all the
+     * commits for those issues, even for repositories that the prvs issue's projects may have been linked to.
+     *
+     * Note that if the previousIssueKeys returns an empty list (which will be the case most of the times), no
+     * additional work is done.
+     *
+     * The callers of this method cannot tell incomplete commits from complete ones, so it waits until all commits have
+     * been looked up.
+     *
+     * @param issue the issue to get commits for
+     * @param branch the name of the branch to get the commits of, or null for all branches
+     * @return Returns a map of (repository id -> Set of {@link com.atlassian.jira.vcs.cvsimpl.CVSCommit}) with all
+     * the passed issue's associated commits.
+     */
+    private Map<Long, Set<CVSCommit>> getAllCommitsInAllIssueRepositories(Issue issue, String branch)
+    {
+        final Map<Long, Set<CVSCommit>> repositoryCommits = new HashMap<Long, Set<CVSCommit>>();
+        for (Map.Entry<Long, RepositoryCommits> entry : lookupCommits(issue, branch, Long.MAX_VALUE).entrySet())
+        {
+            if (entry.getValue().getStatus() == RepositoryCommits.Status.NOT_INDEXED)
+            {
+                //the commit log has not yet been parsed for this repository
+                repositoryCommits.put(entry.getKey(), null);
+            }
+            else
+            {
+                repositoryCommits.put(entry.getKey(), new HashSet<CVSCommit>(entry.getValue().getCommits()));
+            }
+        }
+        return repositoryCommits;
+    }
+
+    /**
+     * Looks up the commits of the issue and of its previous keys in the repositories of its current and previous
+     * projects until the deadline. Each issue key is looked up in each repository concurrently on the shared lookup
+     * executor, and the results are merged as they complete.
+     *
+     * @param issue    the issue to get commits for
+     * @param branch   the name of the branch to get the commits of, or null for all branches
+     * @param deadline the time (in milliseconds since the epoch) to stop looking up commits at
+     * @return map of repository id -> commits found in the repository and whether they are complete
+     */
+    private Map<Long, RepositoryCommits> lookupCommits(Issue issue, final String branch, final long deadline)
+    {
+        final IssueRepositories resolved = getIssueRepositories(issue);
+
+        final Collection<String> allIssueKeys = new LinkedHashSet<String>();
+        allIssueKeys.addAll(resolved.previousIssueKeys);
+        allIssueKeys.add(issue.getKey());
+
+        final Map<Long, RepositoryLookup> lookups = new LinkedHashMap<Long, RepositoryLookup>();
+        for (Long repositoryId : resolved.repositoryIds)
+        {
+            final Repository repository = getRepository(repositoryId);
+            if (repository != null)
+            {
+                lookups.put(repositoryId, new RepositoryLookup(repository, allIssueKeys.size()));
+            }
+        }
+
+        if (lookups.size() == 1 && allIssueKeys.size() == 1 && isContentLoaded(lookups.values().iterator().next().repository))
+        {
+            // Nothing to run concurrently, avoid handing the lookup to another thread
+            final RepositoryLookup lookup = lookups.values().iterator().next();
+            lookup.add(matchCommits(lookup.repository, issue.getKey(), branch, deadline));
+        }
+        else
+        {
+            final CompletionService<IssueCommitMatch> completionService = new ExecutorCompletionService<IssueCommitMatch>(lookupExecutor);
+            final Map<Future<IssueCommitMatch>, RepositoryLookup> pending = new HashMap<Future<IssueCommitMatch>, RepositoryLookup>();
+            for (final RepositoryLookup lookup : lookups.values())
+            {
+                for (final String issueKey : allIssueKeys)
+                {
+                    pending.put(completionService.submit(new Callable<IssueCommitMatch>()
+                    {
+                        public IssueCommitMatch call()
+                        {
+                            return matchCommits(lookup.repository, issueKey, branch, deadline);
+                        }
+                    }), lookup);
+                }
+            }
+
+            // Merge the results as they complete
+            final int submitted = pending.size();
+            try
+            {
+                for (int i = 0; i < submitted; i++)
+                {
+                    final Future<IssueCommitMatch> match = completionService.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    if (match == null)
+                    {
+                        break;
+                    }
+                    final RepositoryLookup lookup = pending.remove(match);
+                    try
+                    {
+                        lookup.add(match.get());
+                    }
+                    catch (ExecutionException e)
+                    {
+                        log.error("Error while retrieving commits from the repository", e.getCause());
+                        lookup.add(new IssueCommitMatch(Collections.<Commit>emptyList(), true));
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            for (Future<IssueCommitMatch> match : pending.keySet())
+            {
+                match.cancel(true);
+            }
+            if (!pending.isEmpty())
+            {
+                log.warn(pending.size() + " of " + submitted + " commit lookups of issue " + issue.getKey() + " did not finish before the deadline.");
+            }
+        }
+
+        final Map<Long, RepositoryCommits> repositoryCommits = new LinkedHashMap<Long, RepositoryCommits>();
+        for (Map.Entry<Long, RepositoryLookup> entry : lookups.entrySet())
+        {
+            repositoryCommits.put(entry.getKey(), entry.getValue().getCommits());
+        }
+        return repositoryCommits;
+    }
+
+    /**
+     * Returns the previous keys of the issue and the repositories of its current and previous projects. The result is
+     * cached until the issue is moved, a project changes or repository associations change on this node, so that
+     * viewing a moved issue costs no more than viewing any other issue. Changes made on other cluster nodes raise no
+     * event on this node, so a cached result also expires after {@link #ISSUE_REPOSITORIES_CACHE_TTL}.
+     *
+     * @param issue the issue to resolve the repositories for
+     * @return the previous issue keys and repository ids of the issue
+     */
+    private IssueRepositories getIssueRepositories(Issue issue)
+    {
+        final IssueRepositories cached = issueRepositories.get(issue.getId());
+        if (cached != null && System.currentTimeMillis() - cached.resolvedAt < ISSUE_REPOSITORIES_CACHE_TTL)
+        {
+            return cached;
+        }
+
+        final Collection<String> previousIssueKeys = changeHistoryManager.getPreviousIssueKeys(issue.getId());
+        final Set<Long> repositoryIds = new LinkedHashSet<Long>();
+        try
+        {
+            for (Repository repository : getAllRepositories(issue, previousIssueKeys))
+            {
+                repositoryIds.add(repository.getId());
+            }
+        }
+        catch (GenericEntityException e)
+        {
+            log.error("Error retrieving project repositories",e);
+            // Do not cache an incomplete result
+            return new IssueRepositories(previousIssueKeys, repositoryIds);
+        }
+
+        final IssueRepositories resolved = new IssueRepositories(previousIssueKeys, repositoryIds);
+        issueRepositories.put(issue.getId(), resolved);
+        return resolved;
+    }
+
+    private Set<Repository> getAllRepositories(Issue issue, Collection<String> previousIssueKeys) throws GenericEntityException
+    {
+        Set<Repository> repositories = new HashSet<Repository>();
+        repositories.addAll(getRepositoriesForProject(issue.getProject()));
+
+        //lookup the repositories for each previous issuekey
+        for (String issueKey : previousIssueKeys)
+        {
+            String projectKey = JiraKeyUtils.getProjectKeyFromIssueKey(issueKey);
+            Project project = projectManager.getProjectObjByKey(projectKey);
+            //the project may no longer exist.
+            if (project != null)
+            {
+                Collection<Repository> repos = getRepositoriesForProject(project.getGenericValue());
+                if (repos != null)
+                {
+                    repositories.addAll(repos);
+                }
+            }
+        }
+        return repositories;
+    }
+
+    /**
+     * Loads the content of the repository if content is loaded on demand or was unloaded to keep within the budget,
+     * and records its use. Unloads the least recently used contents if the loaded contents exceed the budget.
+     *
+     * @param repository the repository about to be queried
+     * @return the repository
+     */
+    private CvsRepository useContent(CvsRepository repository)
+    {
+        if (!repository.isContentLoaded() && (lazyContent || contentCache.isUnloaded(repository.getId())))
+        {
+            try
+            {
+                if (repository.loadContent())
+                {
+                    log.info("Loaded the content of repository '" + repository.getName() + "' on demand.");
+                }
+            }
+            catch (IOException | LockException | LogSyntaxException e)
+            {
+                log.error("Error occurred while loading the content of repository '" + repository.getName() + "': " + e.getMessage(), e);
+            }
+        }
+        if (!repository.isContentLoaded())
+        {
+            return repository;
+        }
+
+        unloadContents(contentCache.used(repository.getId(), repository.getEstimatedContentSize()));
+        return repository;
+    }
+
+    /**
+     * Returns the repository for a query across repositories if its content does not have to be loaded first. Loading
+     * the contents of all repositories queried could exceed the budget and unload the contents other requests are
+     * using, so a repository whose content would have to be loaded is skipped. Its content is loaded in the background
+     * if there is room for it within the budget, so that it is included in later queries.
+     *
+     * @param repository the repository about to be queried
+     * @return the repository, or null if its content is not loaded
+     */
+    private CvsRepository useLoadedContent(CvsRepository repository)
+    {
+        if (repository.isContentLoaded() || !(lazyContent || contentCache.isUnloaded(repository.getId())))
+        {
+            return useContent(repository);
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Skipping repository '" + repository.getName() + "' as its content is not loaded.");
+        }
+        loadContentInBackground(repository);
+        return null;
+    }
+
+    private void loadContentInBackground(final CvsRepository repository)
+    {
+        // A repository that does not fit any more is loaded when it is queried on its own
+        if (contentCache.getLoadedSize() >= contentCache.getBudget() || !pendingContentLoads.add(repository.getId()))
+        {
+            return;
+        }
+
+        contentLoader.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if (contentCache.getLoadedSize() < contentCache.getBudget() && repository.loadContent())
+                    {
+                        log.info("Loaded the content of repository '" + repository.getName() + "' in the background.");
+                        // Not a use: a background load must not make the repository the most recently used one
+                        updatedContent(repository);
+                    }
+                }
+                catch (IOException | LockException | LogSyntaxException e)
+                {
+                    log.error("Error occurred while loading the content of repository '" + repository.getName() + "': " + e.getMessage(), e);
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Error occurred while loading the content of repository '" + repository.getName() + "'.", e);
+                }
+                finally
+                {
+                    pendingContentLoads.remove(repository.getId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Parses the log of a repository again with its current project scope, without fetching it. Contents that are not
+     * loaded are parsed with the current project scope when they are loaded.
+     *
+     * @param repository the repository whose project scope was changed
+     */
+    private void reparseInBackground(final CvsRepository repository)
+    {
+        contentLoader.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if (repository.isProjectScoped())
+                    {
+                        repository.setProjectKeys(getProjectKeys(getProjectsForRepository(repository)));
+                    }
+                    if (repository.isContentLoaded() && repository.reparseContent())
+                    {
+                        log.info("Parsed the log of repository '" + repository.getName() + "' again with the changed project scope.");
+                        updatedContent(repository);
+                    }
+                }
+                catch (GenericEntityException | IOException | LockException | LogSyntaxException e)
+                {
+                    log.error("Error occurred while parsing the log of repository '" + repository.getName() + "' again: " + e.getMessage(), e);
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Error occurred while parsing the log of repository '" + repository.getName() + "' again.", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the size of the content of a repository that was just parsed by an update and unloads the least recently
+     * used contents if the loaded contents exceed the budget.
+     *
+     * @param repository the updated repository
+     */
+    private void updatedContent(CvsRepository repository)
+    {
+        if (!repository.isContentLoaded())
+        {
+            return;
+        }
+
+        final long size = repository.getEstimatedContentSize();
+        unloadContents(contentCache.updated(repository.getId(), size));
+        if (size > contentCache.getBudget())
+        {
+            log.warn("The content of repository '" + repository.getName() + "' alone is estimated at " + size / (1024 * 1024)
+                    + " MB, more than the budget of " + contentCache.getBudget() / (1024 * 1024)
+                    + " MB. Set a history retention or project scope for the repository, or raise the '" + CONTENT_BUDGET_PROPERTY + "' system property.");
+        }
+    }
+
+    private void unloadContents(List<Long> repositoryIds)
+    {
+        for (Long unloadId : repositoryIds)
+        {
+            final Repository unload = getRepository(unloadId);
+            if (unload instanceof CvsRepository)
+            {
+                ((CvsRepository) unload).unloadContent();
+                log.info("Unloaded the content of repository '" + unload.getName() + "' as the loaded contents exceed "
+                        + contentCache.getBudget() / (1024 * 1024) + " MB. It is loaded again when it is queried.");
+            }
+        }
+    }
+
+    public long getLoadedContentSize()
+    {
+        return contentCache.getLoadedSize();
+    }
+
+    public long getContentBudget()
+    {
+        return contentCache.getBudget();
+    }
+
+    /**
+     * @return false if the content of the repository still has to be loaded on demand, which may take a while
+     */
+    private static boolean isContentLoaded(Repository repository)
+    {
+        return !(repository instanceof CvsRepository) || ((CvsRepository) repository).isContentLoaded();
+    }
+
+    private IssueCommitMatch matchCommits(Repository repository, String issueKey, String branch, long deadline)
+    {
+        if (repository instanceof CvsRepository)
+        {
+            return useContent((CvsRepository) repository).matchCommits(issueKey, branch, deadline);
+        }
+
+        try
+        {
+            final List<Commit> coms = repository.getCommitsForIssue(issueKey);
+            return coms == null ? null : new IssueCommitMatch(coms, true);
+        }
+        catch (RepositoryException e)
+        {
+            log.error("Error while retrieving commits from the repository", e);
+            return new IssueCommitMatch(Collections.<Commit>emptyList(), true);
+        }
+    }
+
+    public Repository createRepository(String type, String name, String description, Properties properties) throws Exception
+    {
+        if (CVS_TYPE.equals(type))
+        {
+            HashMap<String, Object> fields = new HashMap<String, Object>();
+            fields.put("type", type);
+            fields.put("name", name);
+            fields.put("description", description);
+
+            GenericValue repositoryRecord = EntityUtils.createValue("VersionControl", fields);
+
+            PropertySet propertySet = OFBizPropertyUtils.getPropertySet(repositoryRecord);
+
+            persistProperties(properties, propertySet);
+
+            // Ensure that we do not modify the repositries map by more than
+            // one thread at a time
+            synchronized (repositories)
+            {
+                // If this is the first repository create the VCS Update Service
+                if (repositories.isEmpty())
+                {
+                    createRepositoryUpdateService();
+                }
+
+                // Load the repository into the cache
+                final Repository repository = getRepository(repositoryRecord.getLong("id"));
+                watchLogFiles();
+                return repository;
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unhandled VCS provider type " + type);
+        }
+    }
+
+    private void persistProperties(Properties properties, PropertySet propertySet)
+    {
+        for (final Object o : properties.keySet())
+        {
+            String key = (String) o;
+            propertySet.setString(key, properties.getProperty(key));
+        }
+    }
+
+    private void createRepositoryUpdateService()
+    {
+        final RepositoryManager repositoryManager = (RepositoryManager) this;
+        pluginScheduler.scheduleJob(VCS_SERVICE_NAME, VcsService.class, new HashMap<String, Object>() {{
+            put(VcsService.REPOSITORY_MANAGER_KEY, repositoryManager); }}, new Date(), VCS_SERVICE_DELAY);
+    }
+
+    private void removeRepositoryUpdateService()
+    {
+        try {
+            pluginScheduler.unscheduleJob(VCS_SERVICE_NAME);
+        } catch (IllegalArgumentException e) {
+            // Swallow illegal argument exception in case this service has already been removed.
         }
     }
 
@@ -493,17 +1371,18 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
         final GenericValue versionControlGV = getVersionControlGV(id);
         final PropertySet cvsPropertySet = OFBizPropertyUtils.getPropertySet(versionControlGV);
 
+        final Repository oldRepository = getRepository(id);
+
         // Check if the properties that mean different CVS repository are set
-        final boolean isDiffrentRepository = isDifferentRepository(cvsPropertySet, properties);
+        final boolean isDiffrentRepository = isDifferentRepository(cvsPropertySet, properties) || isDifferentCharset(oldRepository, name, properties);
+        // Only the filter of the log changes, the log itself stays the same
+        final boolean isDifferentScope = Boolean.parseBoolean(cvsPropertySet.getString(CvsRepository.KEY_PROJECT_SCOPED)) != Boolean.parseBoolean(properties.getProperty(CvsRepository.KEY_PROJECT_SCOPED));
 
-        final Repository oldRepository = getRepository(id);
+        // Give the changed settings a chance on the next update
+        circuitBreaker.reset(id);
 
-        // Check if the repository is in cache (actually it should be at all times - but just to be safe)
-        if (repositories.containsKey(id))
-        {
-            // Remove the repository from cache
-            repositories.remove(id);
-        }
+        // Remove the repository from cache
+        repositories.remove(id);
 
         // Update the record attributes
         versionControlGV.set("type", type);
@@ -534,11 +1413,18 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
         {
             // update this repository with old content
             repository.copyContent(oldRepository);
+            if (isDifferentScope && repository instanceof CvsRepository)
+            {
+                reparseInBackground((CvsRepository) repository);
+            }
         }
         if (isDiffrentRepository)
         {
+            // The new repository has no content yet, the size recorded for the old content no longer counts
+            contentCache.remove(id);
             markVcsServiceToRun();
         }
+        watchLogFiles();
     }
 
     /**
@@ -561,8 +1447,9 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
     /**
      * Checks if any of the new properties values will require a new repository to be created.
      * Returns true if the values differ in {@link CvsRepository#KEY_MODULE_NAME},
-     * {@link CvsRepository#KEY_PASSWORD}, {@link CvsRepository#KEY_CVS_ROOT} or
-     * {@link CvsRepository#KEY_FETCH_LOG} values.
+     * {@link CvsRepository#KEY_PASSWORD}, {@link CvsRepository#KEY_CVS_ROOT}, {@link CvsRepository#KEY_FETCH_LOG} or
+     * {@link CvsRepository#KEY_RETENTION} values. A change of {@link CvsRepository#KEY_PROJECT_SCOPED} only changes
+     * which revisions of the same log are kept, so the log is parsed again instead.
      *
      * @param oldPropertySet old properties
      * @param newProperties  new properties
@@ -573,7 +1460,29 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
         return !equals(CvsRepository.KEY_MODULE_NAME, oldPropertySet, newProperties)
                 || !equals(CvsRepository.KEY_PASSWORD, oldPropertySet, newProperties)
                 || !equals(CvsRepository.KEY_CVS_ROOT, oldPropertySet, newProperties)
-                || !equals(CvsRepository.KEY_FETCH_LOG, oldPropertySet, newProperties);
+                || !equals(CvsRepository.KEY_FETCH_LOG, oldPropertySet, newProperties)
+                || !StringUtils.trimToEmpty(oldPropertySet.getString(CvsRepository.KEY_RETENTION)).equals(StringUtils.trimToEmpty(newProperties.getProperty(CvsRepository.KEY_RETENTION)));
+    }
+
+    /**
+     * Compares the charset the log of the repository is read with to the charset of the new settings. A blank encoding,
+     * the legacy encoding system property and an alias of the same charset read the log alike, so the stored encodings
+     * are not compared.
+     *
+     * @param oldRepository the repository with the old settings
+     * @param name          the new name of the repository, which the legacy encoding system property is looked up by
+     * @param newProperties new properties
+     * @return true if the log has to be read with a different charset
+     */
+    private static boolean isDifferentCharset(Repository oldRepository, String name, Properties newProperties)
+    {
+        if (!(oldRepository instanceof CvsRepository))
+        {
+            return false;
+        }
+        final String encoding = newProperties.getProperty(CvsRepository.KEY_ENCODING);
+        final Charset newCharset = CvsRepository.getCharset(StringUtils.isBlank(encoding) ? CvsRepository.getLegacyEncoding(name) : encoding);
+        return !((CvsRepository) oldRepository).getCharset().equals(newCharset);
     }
 
     /**
@@ -611,12 +1520,21 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
 
         // Remove the repository from cache
         repositories.remove(id);
+        final ScheduledFuture<?> pendingRefresh = pendingRefreshes.remove(id);
+        if (pendingRefresh != null)
+        {
+            pendingRefresh.cancel(false);
+        }
+        issueRepositories.clear();
+        circuitBreaker.reset(id);
+        contentCache.remove(id);
 
         // Check if this is the last repository, If so remove the VCS Update Service
         if (repositories.isEmpty())
         {
             removeRepositoryUpdateService();
         }
+        watchLogFiles();
     }
 
     /**
@@ -659,6 +1577,8 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
     private void setProjectRepositories(final GenericValue project, List<GenericValue> newRepositoryGVs)
             throws GenericEntityException
     {
+        final Set<Long> affectedRepositoryIds = new HashSet<Long>();
+
         // Remove existing project to repository associations
         // That is, de-associate the project from the repositories it is currently associated with
         @SuppressWarnings ({ "unchecked" })
@@ -666,13 +1586,51 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
         for (GenericValue oldAssociation : oldAssociations)
         {
             nodeAssociationStore.removeAssociation(project, oldAssociation, ProjectRelationConstants.PROJECT_VERSIONCONTROL);
+            affectedRepositoryIds.add(oldAssociation.getLong("id"));
         }
 
         // Create new project to repository associations
         for (GenericValue repoEntity : newRepositoryGVs)
         {
             nodeAssociationStore.createAssociation(project, repoEntity, ProjectRelationConstants.PROJECT_VERSIONCONTROL);
+            affectedRepositoryIds.add(repoEntity.getLong("id"));
+        }
+
+        issueRepositories.clear();
+
+        // Project scoped repositories need to be parsed again if the set of associated projects has changed
+        boolean reparseRequired = false;
+        for (Long repositoryId : affectedRepositoryIds)
+        {
+            final Repository repository = getRepository(repositoryId);
+            if (repository instanceof CvsRepository && ((CvsRepository) repository).isProjectScoped())
+            {
+                final CvsRepository cvsRepository = (CvsRepository) repository;
+                reparseRequired |= cvsRepository.setProjectKeys(getProjectKeys(getProjectsForRepository(cvsRepository)));
+            }
+        }
+
+        if (reparseRequired)
+        {
+            markVcsServiceToRun();
+        }
+    }
+
+    /**
+     * Returns the current and historical keys of the given projects.
+     *
+     * @param projects projects to get the keys of
+     * @return set of project keys, never null
+     */
+    private Set<String> getProjectKeys(Collection<Project> projects)
+    {
+        final Set<String> projectKeys = new HashSet<String>();
+        for (Project project : projects)
+        {
+            projectKeys.add(project.getKey());
+            projectKeys.addAll(projectManager.getAllProjectKeys(project.getId()));
         }
+        return projectKeys;
     }
 
     /**
@@ -683,54 +1641,328 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
         return repositories.values();
     }
 
+    /**
+     * Caches a repository that has no database record, for tests.
+     *
+     * @param repository the repository
+     */
+    void addRepository(Repository repository)
+    {
+        repositories.put(repository.getId(), repository);
+    }
+
     public boolean updateRepositories() throws GenericEntityException
     {
         boolean exception = true;
 
+        // In a cluster only the node holding the lease on the shared index fetches the logs
+        boolean fetchingNode = sharedIndex == null || acquireLease();
+
         // Get all the repositories and update them
         final Collection<Repository> repositories = getRepositories();
+        boolean first = true;
         for (Repository repository : repositories)
         {
+            if (sharedIndex != null && fetchingNode && !first)
+            {
+                // Updating all repositories may take longer than the lease, renew it so no other node takes over
+                fetchingNode = acquireLease();
+                if (!fetchingNode)
+                {
+                    log.warn("Lost the lease on the shared CVS index - loading published logs only.");
+                }
+            }
+            first = false;
+
+            if (!circuitBreaker.allowRequest(repository.getId()))
+            {
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Updates of repository '" + repository.getName() + "' keep failing - not updating before "
+                            + circuitBreaker.getStatus(repository.getId()).getRetryAt() + ".");
+                }
+                continue;
+            }
+
             try
             {
-                updateRepository(repository);
+                updateRepository(repository, fetchingNode);
+                circuitBreaker.recordSuccess(repository.getId());
             }
-            catch (CommandException e)
+            catch (CommandException | AuthenticationException | IOException | LogSyntaxException | LockException e)
             {
-                log.error("Error occurred while updating repository '" + repository.getName() + "': " + e.getMessage(), e);
+                recordUpdateFailure(repository, e);
                 exception = false;
             }
-            catch (AuthenticationException e)
+            catch (RuntimeException e)
+            {
+                recordUpdateFailure(repository, e);
+                throw e;
+            }
+        }
+
+        return exception;
+    }
+
+    /**
+     * Tries to obtain or renew the lease of this node on the shared index.
+     *
+     * @return true if this node holds the lease and fetches the logs
+     */
+    private boolean acquireLease()
+    {
+        try
+        {
+            return sharedIndex.tryAcquireLease(clusterManager.getNodeId(), SHARED_INDEX_LEASE_DURATION);
+        }
+        catch (LockException e)
+        {
+            log.error("Error occurred while obtaining the lease on the shared CVS index - loading published logs only: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Records a failed update of a repository with the circuit breaker. Only the first failure is logged with its stack
+     * trace, so that a CVS server that is down for a while does not flood the log.
+     */
+    private void recordUpdateFailure(Repository repository, Exception e)
+    {
+        final RepositoryCircuitBreaker.CircuitStatus previous = circuitBreaker.getStatus(repository.getId());
+        final RepositoryCircuitBreaker.State state = circuitBreaker.recordFailure(repository.getId(), e.getMessage());
+        if (previous == null)
+        {
+            log.error("Error occurred while updating repository '" + repository.getName() + "': " + e.getMessage(), e);
+            final Throwable cause = e instanceof AuthenticationException ? ((AuthenticationException) e).getUnderlyingThrowable() : null;
+            if (cause != null)
+            {
+                log.error("Caused by: " + cause.getMessage(), cause);
+            }
+        }
+        else
+        {
+            log.warn("Error occurred while updating repository '" + repository.getName() + "' (" + (previous.getConsecutiveFailures() + 1)
+                    + " consecutive failures): " + e.getMessage());
+        }
+
+        if (state == RepositoryCircuitBreaker.State.OPEN)
+        {
+            log.warn("Not updating repository '" + repository.getName() + "' before "
+                    + circuitBreaker.getStatus(repository.getId()).getRetryAt() + " as its updates keep failing.");
+        }
+    }
+
+    public RepositoryCircuitBreaker.CircuitStatus getCircuitStatus(Long id)
+    {
+        return circuitBreaker.getStatus(id);
+    }
+
+    public void loadFullHistory(Long id) throws GenericEntityException
+    {
+        final Repository repository = getRepository(id);
+        if (!(repository instanceof CvsRepository))
+        {
+            throw new GenericEntityException("Could not find CVS repository with id '" + id + "'.");
+        }
+        ((CvsRepository) repository).loadFullHistory();
+        scheduleRefresh(id);
+    }
+
+    public Collection<Repository> scheduleRefresh(String moduleName, Collection<String> changedPaths)
+    {
+        final List<String> paths = new ArrayList<String>();
+        if (moduleName != null)
+        {
+            paths.add(moduleName);
+        }
+        if (changedPaths != null)
+        {
+            paths.addAll(changedPaths);
+        }
+
+        final List<Repository> scheduled = new ArrayList<Repository>();
+        for (Repository repository : getRepositories())
+        {
+            if (repository instanceof CvsRepository && isModuleAffected(((CvsRepository) repository).getModuleName(), paths))
+            {
+                scheduleRefresh(repository.getId());
+                scheduled.add(repository);
+            }
+        }
+        return scheduled;
+    }
+
+    private void scheduleRefresh(final Long repositoryId)
+    {
+        synchronized (pendingRefreshes)
+        {
+            // A refresh that has not started yet will pick up this change as well
+            if (pendingRefreshes.containsKey(repositoryId))
+            {
+                return;
+            }
+            pendingRefreshes.put(repositoryId, refreshExecutor.schedule(new Runnable()
             {
-                log.error("Error occurred while updating repository '" + repository.getName() + "': " + e.getMessage(), e);
-                Throwable cause = e.getUnderlyingThrowable();
-                if (cause != null)
+                public void run()
                 {
-                    log.error("Caused by: " + cause.getMessage(), cause);
+                    pendingRefreshes.remove(repositoryId);
+                    try
+                    {
+                        refreshRepository(repositoryId);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // An exception would be swallowed by the executor without a trace
+                        log.error("Error occurred while refreshing repository with id '" + repositoryId + "'.", e);
+                    }
                 }
-                exception = false;
-            }
-            catch (IOException e)
+            }, REFRESH_DEBOUNCE_DELAY, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void refreshRepository(Long repositoryId)
+    {
+        final Repository repository = getRepository(repositoryId);
+        if (repository == null)
+        {
+            return;
+        }
+
+        if (repository instanceof CvsRepository && !((CvsRepository) repository).fetchLog()
+                && StringUtils.isNotBlank(((CvsRepository) repository).getCvsLogFilePath()))
+        {
+            // Wait until the external process has finished writing the log
+            final File logFile = new File(((CvsRepository) repository).getCvsLogFilePath());
+            final long age = System.currentTimeMillis() - logFile.lastModified();
+            if (cvsRepositoryUtil.isLogLocked(logFile) || (age >= 0 && age < REFRESH_DEBOUNCE_DELAY))
             {
-                log.error("Error occurred while updating repository '" + repository.getName() + "': " + e.getMessage(), e);
-                exception = false;
+                scheduleRefresh(repositoryId);
+                return;
             }
-            catch (LogSyntaxException e)
+        }
+
+        // In a cluster only the node holding the lease fetches the log and shares it with the other nodes, any other node
+        // loads the log published last
+        final boolean fetchingNode = sharedIndex == null || acquireLease();
+        try
+        {
+            // A refresh means the repository has just changed, so it is tried even if its circuit is open
+            updateRepository(repository, fetchingNode);
+            circuitBreaker.recordSuccess(repositoryId);
+        }
+        catch (CommandException | AuthenticationException | IOException | LogSyntaxException | LockException e)
+        {
+            recordUpdateFailure(repository, e);
+        }
+    }
+
+    /**
+     * Checks whether a change to any of the given paths affects the module of a repository.
+     *
+     * @param repositoryModule module name of the repository
+     * @param paths            module and paths reported as changed, relative to the CVS root
+     * @return true if the repository's module contains any of the paths
+     */
+    static boolean isModuleAffected(String repositoryModule, Collection<String> paths)
+    {
+        if (repositoryModule == null)
+        {
+            return false;
+        }
+        final String module = StringUtils.strip(repositoryModule.trim(), "/");
+        if (module.isEmpty() || ".".equals(module))
+        {
+            // The repository is the whole CVS root
+            return true;
+        }
+
+        for (String path : paths)
+        {
+            final String changed = StringUtils.strip(StringUtils.trimToEmpty(path), "/");
+            if (changed.equals(module) || changed.startsWith(module + "/") || module.startsWith(changed + "/"))
             {
-                log.error("Error occurred while updating repository '" + repository.getName() + "': " + e.getMessage(), e);
-                exception = false;
+                return true;
             }
-            catch (LockException e)
+        }
+        return false;
+    }
+
+    public RepositoryTestResult startRepositoryTest(final Long id) throws GenericEntityException
+    {
+        final Repository repository = getRepository(id);
+        if (!(repository instanceof CvsRepository))
+        {
+            throw new IllegalArgumentException("Repository with id '" + id + "' is not a CVS repository.");
+        }
+
+        synchronized (testResults)
+        {
+            final RepositoryTestResult current = testResults.get(id);
+            if (current != null && current.getStatus() == RepositoryTestResult.Status.RUNNING)
             {
-                log.error("Error occurred while updating repository '" + repository.getName() + "': " + e.getMessage(), e);
-                exception = false;
+                return current;
             }
+
+            final RepositoryTestResult running = RepositoryTestResult.running();
+            testResults.put(id, running);
+            testExecutor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    testResults.put(id, testRepository((CvsRepository) repository, running));
+                }
+            });
+            return running;
         }
+    }
 
-        return exception;
+    public RepositoryTestResult getRepositoryTestResult(Long id)
+    {
+        return testResults.get(id);
+    }
+
+    private RepositoryTestResult testRepository(CvsRepository repository, RepositoryTestResult running)
+    {
+        File logFile = null;
+        try
+        {
+            // Never overwrite the log the repository's content is parsed from
+            logFile = repository.fetchLog() ? File.createTempFile("cvstest", ".log") : new File(repository.getCvsLogFilePath());
+            if (repository.fetchLog())
+            {
+                cvsRepositoryUtil.updateCvs(logFile, repository.getCvsRoot(), repository.getModuleName(), repository.getPassword(), repository.getCvsTimeout(), repository.getCharset());
+            }
+            final CvsContent content = cvsRepositoryUtil.parseCvsLogs(logFile, repository.getModuleName(), cvsRepositoryUtil.parseCvsRoot(repository.getCvsRoot()).getRepository(), repository.getCharset());
+            return running.succeeded(content.getCommits() == null ? 0 : content.getCommits().size());
+        }
+        catch (Exception e)
+        {
+            log.error("Error occurred while testing repository '" + repository.getName() + "': " + e.getMessage(), e);
+            return running.failed(e.getMessage());
+        }
+        finally
+        {
+            if (logFile != null && repository.fetchLog())
+            {
+                FileUtils.deleteQuietly(logFile);
+            }
+        }
     }
 
     protected boolean updateRepository(Repository repository) throws CommandException, AuthenticationException, IOException, LogSyntaxException, LockException
+    {
+        return updateRepository(repository, true);
+    }
+
+    /**
+     * Updates the given repository. When the logs are shared with other cluster nodes, the fetching node publishes the
+     * logs it fetched and the other nodes load the published log instead of contacting the CVS server.
+     *
+     * @param repository   repository to update
+     * @param fetchingNode whether this node fetches the logs of the repositories
+     * @return true if the repository was updated
+     */
+    private boolean updateRepository(Repository repository, boolean fetchingNode) throws CommandException, AuthenticationException, IOException, LogSyntaxException, LockException
     {
         // update if this is a cvs repository
         if (RepositoryManager.CVS_TYPE.equals(repository.getType()))
@@ -738,11 +1970,60 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
             // Check if this repository is associated with at least one project
             try
             {
-                if (!getProjectsForRepository(repository).isEmpty())
+                final Collection<Project> projects = getProjectsForRepository(repository);
+                if (!projects.isEmpty())
                 {
                     log.debug("Updating repository '" + repository.getName() + "'...");
                     CvsRepository cvsRepository = (CvsRepository) repository;
-                    cvsRepository.updateRepository();
+                    boolean projectKeysChanged = false;
+                    if (cvsRepository.isProjectScoped())
+                    {
+                        projectKeysChanged = cvsRepository.setProjectKeys(getProjectKeys(projects));
+                    }
+
+                    // Contents that were unloaded to keep within the budget stay unloaded until they are queried
+                    if (!cvsRepository.isContentLoaded() && (lazyContent || contentCache.isUnloaded(cvsRepository.getId())))
+                    {
+                        return updateUnloadedRepository(cvsRepository, fetchingNode);
+                    }
+
+                    // Logs maintained by an external process are local to each node and are always parsed locally
+                    if (!cvsRepository.fetchLog())
+                    {
+                        if (!projectKeysChanged && cvsRepository.isParsedLogCurrent())
+                        {
+                            log.debug("Log of repository '" + repository.getName() + "' has not changed - not updating.");
+                            return false;
+                        }
+                        cvsRepository.updateRepository();
+                    }
+                    else if (sharedIndex == null)
+                    {
+                        cvsRepository.updateRepository();
+                    }
+                    else if (fetchingNode)
+                    {
+                        cvsRepository.updateRepository();
+                        publishIfChanged(cvsRepository, cvsRepository.getParsedLogFile());
+                    }
+                    else
+                    {
+                        final long generation = sharedIndex.getGeneration(cvsRepository.getId());
+                        if (generation == 0 || generation == cvsRepository.getSnapshotGeneration())
+                        {
+                            // Without a new log, the changed project keys are applied to the copy of the last snapshot
+                            if (!projectKeysChanged || !cvsRepository.reparseContent())
+                            {
+                                log.debug("No new log published for repository '" + repository.getName() + "' - not updating.");
+                                return false;
+                            }
+                        }
+                        else
+                        {
+                            cvsRepository.loadSnapshot(sharedIndex.getSnapshot(cvsRepository.getId()), generation);
+                        }
+                    }
+                    updatedContent(cvsRepository);
                     log.debug("Finished updating repository '" + repository.getName() + "'.");
                     return true;
                 }
@@ -764,10 +2045,158 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
         return false;
     }
 
+    /**
+     * Updates the log of a repository whose content is loaded on demand, or was unloaded to keep within the budget, and
+     * is not loaded. The log is fetched or
+     * imported from the shared index as usual, but only parsed when the repository is queried.
+     *
+     * @param cvsRepository repository to update
+     * @param fetchingNode  whether this node fetches the logs of the repositories
+     * @return true if the log was updated
+     */
+    private boolean updateUnloadedRepository(CvsRepository cvsRepository, boolean fetchingNode) throws CommandException, AuthenticationException, IOException, LockException
+    {
+        if (!cvsRepository.fetchLog())
+        {
+            // The log is maintained by an external process and is read when the content is loaded
+            return false;
+        }
+        if (sharedIndex == null || fetchingNode)
+        {
+            final String cvsLog = cvsRepository.updateCvs();
+            if (sharedIndex != null)
+            {
+                publishIfChanged(cvsRepository, new File(cvsLog));
+            }
+            return true;
+        }
+
+        final long generation = sharedIndex.getGeneration(cvsRepository.getId());
+        if (generation == 0 || generation == cvsRepository.getSnapshotGeneration())
+        {
+            return false;
+        }
+        cvsRepository.importSnapshot(sharedIndex.getSnapshot(cvsRepository.getId()), generation);
+        return true;
+    }
+
+    /**
+     * Publishes the fetched log of a repository to the shared index, unless it is the same as the published snapshot.
+     * Every publish makes the other nodes copy and parse the log again, and most hourly fetches find no new commits.
+     *
+     * @param cvsRepository repository the log was fetched for
+     * @param logFile       the fetched log
+     * @return true if the log was published
+     */
+    private boolean publishIfChanged(CvsRepository cvsRepository, File logFile) throws IOException, LockException
+    {
+        final Long repositoryId = cvsRepository.getId();
+        final File snapshot = sharedIndex.getSnapshot(repositoryId);
+        if (sharedIndex.getGeneration(repositoryId) > 0 && snapshot.length() == logFile.length())
+        {
+            final LogPosition published = cvsRepositoryUtil.getLogPosition(snapshot, snapshot.length());
+            if (published != null && published.equals(cvsRepositoryUtil.getLogPosition(logFile, logFile.length())))
+            {
+                log.debug("Log of repository '" + cvsRepository.getName() + "' is the same as the published snapshot - not publishing.");
+                return false;
+            }
+        }
+        return sharedIndex.publish(clusterManager.getNodeId(), repositoryId, logFile) > 0;
+    }
+
     public void refresh() throws GenericEntityException
     {
         repositories.clear();
+        issueRepositories.clear();
         loadRepositories();
+        watchLogFiles();
+    }
+
+    /**
+     * The previous keys of an issue and the ids of the repositories of its current and previous projects.
+     */
+    private static class IssueRepositories
+    {
+        private final Collection<String> previousIssueKeys;
+        private final Set<Long> repositoryIds;
+        private final long resolvedAt = System.currentTimeMillis();
+
+        private IssueRepositories(Collection<String> previousIssueKeys, Set<Long> repositoryIds)
+        {
+            this.previousIssueKeys = Collections.unmodifiableCollection(new ArrayList<String>(previousIssueKeys));
+            this.repositoryIds = Collections.unmodifiableSet(repositoryIds);
+        }
+    }
+
+    /**
+     * The commits of an issue found in a repository so far, merged from the lookups of each of the issue's keys.
+     */
+    private static class RepositoryLookup
+    {
+        private final Repository repository;
+        private final int issueKeys;
+        // CVSCommit equality is based on the commit identity, so a commit matched through several issue keys is only
+        // added once
+        private final Set<CVSCommit> commits = new HashSet<CVSCommit>();
+        private int completedIssueKeys;
+        private boolean incomplete;
+        private boolean notIndexed;
+
+        private RepositoryLookup(Repository repository, int issueKeys)
+        {
+            this.repository = repository;
+            this.issueKeys = issueKeys;
+        }
+
+        private void add(IssueCommitMatch match)
+        {
+            if (match == null)
+            {
+                notIndexed = true;
+                return;
+            }
+            for (Commit commit : match.getCommits())
+            {
+                commits.add(new CVSCommit(commit, repository));
+            }
+            if (match.isComplete())
+            {
+                completedIssueKeys++;
+            }
+            else
+            {
+                incomplete = true;
+            }
+        }
+
+        private RepositoryCommits getCommits()
+        {
+            if (notIndexed)
+            {
+                return new RepositoryCommits(RepositoryCommits.Status.NOT_INDEXED, null);
+            }
+            if (completedIssueKeys == issueKeys)
+            {
+                return new RepositoryCommits(RepositoryCommits.Status.COMPLETE, commits);
+            }
+            if (completedIssueKeys == 0 && !incomplete)
+            {
+                return new RepositoryCommits(RepositoryCommits.Status.TIMED_OUT, null);
+            }
+            return new RepositoryCommits(RepositoryCommits.Status.PARTIAL, commits);
+        }
+    }
+
+    private static class CachedCommitActivity
+    {
+        private final String state;
+        private final ProjectCommitActivity activity;
+
+        private CachedCommitActivity(String state, ProjectCommitActivity activity)
+        {
+            this.state = state;
+            this.activity = activity;
+        }
     }
 
     @Override
@@ -781,6 +2210,19 @@ public class DefaultRepositoryManager implements RepositoryManager, Initializing
     {
         eventPublisher.unregister(this);
         removeRepositoryUpdateService();
+        refreshExecutor.shutdownNow();
+        testExecutor.shutdownNow();
+        lookupExecutor.shutdownNow();
+        contentLoader.shutdownNow();
+        if (logFileWatcher != null)
+        {
+            logFileWatcher.close();
+        }
+        if (sharedIndex != null)
+        {
+            // Let another node take over fetching the logs straight away
+            sharedIndex.releaseLease(clusterManager.getNodeId());
+        }
     }
 
     @Override
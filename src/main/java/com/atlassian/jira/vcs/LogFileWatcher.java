@@ -0,0 +1,209 @@
+package com.atlassian.jira.vcs;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the log files of repositories whose log is maintained by an external process and reports when they change.
+ * <p/>
+ * The directories of the log files are registered with a {@link WatchService}. Any change of a log file, or of a file
+ * next to it whose name starts with the name of the log (e.g. its <code>.write.lock</code>), is reported to the
+ * listener. Reports come in bursts while a log is written; the listener is expected to wait until the writer is done.
+ */
+public class LogFileWatcher
+{
+    private static final Logger log = Logger.getLogger(LogFileWatcher.class);
+
+    public interface Listener
+    {
+        /**
+         * Called from the watcher thread when the log file of a repository may have changed.
+         *
+         * @param repositoryId id of the repository
+         */
+        void logFileChanged(Long repositoryId);
+    }
+
+    private final WatchService watchService;
+    private final Listener listener;
+
+    /**
+     * Watched directory -> (log file name -> ids of the repositories using the log)
+     */
+    private final Map<Path, Map<String, Set<Long>>> watchedFiles = new HashMap<Path, Map<String, Set<Long>>>();
+    private final Map<Path, WatchKey> watchKeys = new HashMap<Path, WatchKey>();
+    private Thread thread;
+
+    public LogFileWatcher(Listener listener) throws IOException
+    {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.listener = listener;
+    }
+
+    /**
+     * Replaces the watched log files.
+     *
+     * @param logFiles map of repository id -> log file of the repository
+     */
+    public synchronized void setWatchedFiles(Map<Long, File> logFiles)
+    {
+        watchedFiles.clear();
+        for (Map.Entry<Long, File> entry : logFiles.entrySet())
+        {
+            final File logFile = entry.getValue().getAbsoluteFile();
+            final File directory = logFile.getParentFile();
+            if (directory == null || !directory.isDirectory())
+            {
+                log.warn("Cannot watch log file '" + logFile + "' as its directory does not exist.");
+                continue;
+            }
+
+            final Path path = directory.toPath();
+            Map<String, Set<Long>> files = watchedFiles.get(path);
+            if (files == null)
+            {
+                files = new HashMap<String, Set<Long>>();
+                watchedFiles.put(path, files);
+            }
+            Set<Long> repositoryIds = files.get(logFile.getName());
+            if (repositoryIds == null)
+            {
+                repositoryIds = new HashSet<Long>();
+                files.put(logFile.getName(), repositoryIds);
+            }
+            repositoryIds.add(entry.getKey());
+        }
+
+        // Stop watching directories that are no longer needed
+        for (Path path : new HashSet<Path>(watchKeys.keySet()))
+        {
+            if (!watchedFiles.containsKey(path))
+            {
+                watchKeys.remove(path).cancel();
+            }
+        }
+
+        for (Path path : watchedFiles.keySet())
+        {
+            if (!watchKeys.containsKey(path))
+            {
+                try
+                {
+                    watchKeys.put(path, path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE));
+                }
+                catch (IOException e)
+                {
+                    log.error("Could not watch directory '" + path + "' for log file changes: " + e.getMessage(), e);
+                }
+            }
+        }
+
+        if (thread == null && !watchKeys.isEmpty())
+        {
+            thread = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    processEvents();
+                }
+            }, "cvs-log-file-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops watching. The watcher cannot be used afterwards.
+     */
+    public void close()
+    {
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Error closing log file watcher: " + e.getMessage(), e);
+        }
+    }
+
+    private void processEvents()
+    {
+        while (true)
+        {
+            final WatchKey key;
+            try
+            {
+                key = watchService.take();
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            catch (ClosedWatchServiceException e)
+            {
+                return;
+            }
+
+            final Path directory = (Path) key.watchable();
+            final Set<Long> changed = new HashSet<Long>();
+            for (WatchEvent<?> event : key.pollEvents())
+            {
+                final Object context = event.context();
+                changed.addAll(getRepositoryIds(directory, event.kind() == StandardWatchEventKinds.OVERFLOW || context == null ? null : context.toString()));
+            }
+            key.reset();
+
+            for (Long repositoryId : changed)
+            {
+                try
+                {
+                    listener.logFileChanged(repositoryId);
+                }
+                catch (RuntimeException e)
+                {
+                    log.error("Error handling change of log file of repository with id '" + repositoryId + "': " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param directory the directory an event occurred in
+     * @param fileName  name of the changed file, or null if any file in the directory may have changed
+     * @return ids of the repositories whose log may have changed
+     */
+    private synchronized Set<Long> getRepositoryIds(Path directory, String fileName)
+    {
+        final Map<String, Set<Long>> files = watchedFiles.get(directory);
+        if (files == null)
+        {
+            return Collections.emptySet();
+        }
+
+        final Set<Long> repositoryIds = new HashSet<Long>();
+        for (Map.Entry<String, Set<Long>> entry : files.entrySet())
+        {
+            if (fileName == null || fileName.startsWith(entry.getKey()))
+            {
+                repositoryIds.addAll(entry.getValue());
+            }
+        }
+        return repositoryIds;
+    }
+}
@@ -0,0 +1,71 @@
+package com.atlassian.jira.vcs;
+
+import com.atlassian.jira.vcs.cvsimpl.CommitActivity;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of the commit activity of a project across its repositories, as shown on the project configuration page.
+ * See {@link RepositoryManager#getCommitActivity(com.atlassian.jira.project.Project)}.
+ */
+public class ProjectCommitActivity
+{
+    public static final int WEEKS = 12;
+    public static final int TOP_LIMIT = 5;
+
+    private final int[] weeklyCommits;
+    private final int recentCommits;
+    private final List<Map.Entry<String, Integer>> topAuthors;
+    private final List<Map.Entry<String, Integer>> mostChangedFiles;
+
+    public ProjectCommitActivity(CommitActivity activity, long now)
+    {
+        this.weeklyCommits = activity.getWeeklyCommits(now, WEEKS);
+        int total = 0;
+        for (int count : weeklyCommits)
+        {
+            total += count;
+        }
+        this.recentCommits = total;
+        this.topAuthors = activity.getTopAuthors(TOP_LIMIT);
+        this.mostChangedFiles = activity.getMostChangedFiles(TOP_LIMIT);
+    }
+
+    /**
+     * @return the number of commits in each of the last {@link #WEEKS} weeks, oldest week first
+     */
+    public int[] getWeeklyCommits()
+    {
+        return weeklyCommits.clone();
+    }
+
+    /**
+     * @return the number of commits in the last {@link #WEEKS} weeks
+     */
+    public int getRecentCommits()
+    {
+        return recentCommits;
+    }
+
+    /**
+     * @return the CVS authors with the most commits of all time and their number of commits
+     */
+    public List<Map.Entry<String, Integer>> getTopAuthors()
+    {
+        return topAuthors;
+    }
+
+    /**
+     * @return the files changed most often and their number of changes
+     */
+    public List<Map.Entry<String, Integer>> getMostChangedFiles()
+    {
+        return mostChangedFiles;
+    }
+
+    public boolean isEmpty()
+    {
+        return topAuthors.isEmpty();
+    }
+}
@@ -0,0 +1,211 @@
+package com.atlassian.jira.vcs;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of repositories whose updates keep failing, so that a CVS server that is down is not contacted on every
+ * run of the VCS service.
+ * <p/>
+ * The circuit of a repository opens after {@link #FAILURE_THRESHOLD} consecutive failed updates. While it is open the
+ * repository is not updated. Once the open period has passed the circuit is half-open and a single update is let
+ * through as a probe: if it succeeds the circuit closes, otherwise it opens again for twice as long as before, up to
+ * {@link #MAX_OPEN_DURATION}.
+ */
+public class RepositoryCircuitBreaker
+{
+    public enum State
+    {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Number of consecutive failures after which the circuit of a repository opens
+     */
+    static final int FAILURE_THRESHOLD = 2;
+    static final long INITIAL_OPEN_DURATION = RepositoryManager.VCS_SERVICE_DELAY;
+    static final long MAX_OPEN_DURATION = 24 * 60 * 60 * 1000L;
+
+    private final ConcurrentHashMap<Long, Circuit> circuits = new ConcurrentHashMap<Long, Circuit>();
+
+    /**
+     * Checks whether the given repository may be updated now. If the circuit of the repository has been open long
+     * enough the caller becomes the probe of the half-open circuit and must report the outcome of its update.
+     *
+     * @param repositoryId id of the repository
+     * @return true if the repository may be updated
+     */
+    public boolean allowRequest(Long repositoryId)
+    {
+        final Circuit circuit = circuits.get(repositoryId);
+        if (circuit == null)
+        {
+            return true;
+        }
+
+        synchronized (circuit)
+        {
+            final long now = currentTimeMillis();
+            switch (circuit.state)
+            {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (now >= circuit.retryAt)
+                    {
+                        circuit.state = State.HALF_OPEN;
+                        circuit.probeStarted = now;
+                        return true;
+                    }
+                    return false;
+                default:
+                    // Only one probe at a time, unless the probe never reported back
+                    if (now - circuit.probeStarted >= INITIAL_OPEN_DURATION)
+                    {
+                        circuit.probeStarted = now;
+                        return true;
+                    }
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Records a successful update, closing the circuit of the repository.
+     *
+     * @param repositoryId id of the repository
+     */
+    public void recordSuccess(Long repositoryId)
+    {
+        circuits.remove(repositoryId);
+    }
+
+    /**
+     * Records a failed update.
+     *
+     * @param repositoryId id of the repository
+     * @param message      description of the failure
+     * @return the state of the circuit after the failure
+     */
+    public State recordFailure(Long repositoryId, String message)
+    {
+        Circuit circuit = circuits.get(repositoryId);
+        if (circuit == null)
+        {
+            circuit = new Circuit();
+            final Circuit existing = circuits.putIfAbsent(repositoryId, circuit);
+            if (existing != null)
+            {
+                circuit = existing;
+            }
+        }
+
+        synchronized (circuit)
+        {
+            final long now = currentTimeMillis();
+            circuit.consecutiveFailures++;
+            circuit.lastFailure = now;
+            circuit.lastFailureMessage = message;
+            if (circuit.state == State.HALF_OPEN || circuit.consecutiveFailures >= FAILURE_THRESHOLD)
+            {
+                circuit.openDuration = circuit.openDuration == 0 ? INITIAL_OPEN_DURATION : Math.min(circuit.openDuration * 2, MAX_OPEN_DURATION);
+                circuit.retryAt = now + circuit.openDuration;
+                circuit.state = State.OPEN;
+            }
+            return circuit.state;
+        }
+    }
+
+    /**
+     * Forgets the failures of a repository, e.g. when its settings were changed or it was removed.
+     *
+     * @param repositoryId id of the repository
+     */
+    public void reset(Long repositoryId)
+    {
+        circuits.remove(repositoryId);
+    }
+
+    /**
+     * @param repositoryId id of the repository
+     * @return the state of the circuit of the repository, null if its last update succeeded
+     */
+    public CircuitStatus getStatus(Long repositoryId)
+    {
+        final Circuit circuit = circuits.get(repositoryId);
+        if (circuit == null)
+        {
+            return null;
+        }
+        synchronized (circuit)
+        {
+            return new CircuitStatus(circuit.state, circuit.consecutiveFailures, circuit.lastFailureMessage,
+                    new Date(circuit.lastFailure), circuit.state == State.CLOSED ? null : new Date(circuit.retryAt));
+        }
+    }
+
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private static class Circuit
+    {
+        private State state = State.CLOSED;
+        private int consecutiveFailures;
+        private long openDuration;
+        private long retryAt;
+        private long probeStarted;
+        private long lastFailure;
+        private String lastFailureMessage;
+    }
+
+    /**
+     * Snapshot of the circuit of a repository
+     */
+    public static class CircuitStatus
+    {
+        private final State state;
+        private final int consecutiveFailures;
+        private final String lastFailureMessage;
+        private final Date lastFailure;
+        private final Date retryAt;
+
+        private CircuitStatus(State state, int consecutiveFailures, String lastFailureMessage, Date lastFailure, Date retryAt)
+        {
+            this.state = state;
+            this.consecutiveFailures = consecutiveFailures;
+            this.lastFailureMessage = lastFailureMessage;
+            this.lastFailure = lastFailure;
+            this.retryAt = retryAt;
+        }
+
+        public State getState()
+        {
+            return state;
+        }
+
+        public int getConsecutiveFailures()
+        {
+            return consecutiveFailures;
+        }
+
+        public String getLastFailureMessage()
+        {
+            return lastFailureMessage;
+        }
+
+        public Date getLastFailure()
+        {
+            return lastFailure;
+        }
+
+        /**
+         * @return when the repository will be tried again, null if the circuit is closed
+         */
+        public Date getRetryAt()
+        {
+            return retryAt;
+        }
+    }
+}
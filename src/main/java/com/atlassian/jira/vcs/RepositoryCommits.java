@@ -0,0 +1,55 @@
+package com.atlassian.jira.vcs;
+
+import com.atlassian.jira.vcs.cvsimpl.CVSCommit;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The commits of an issue found in a repository within a deadline, see
+ * {@link RepositoryManager#getCommits(com.atlassian.jira.issue.Issue, com.atlassian.jira.user.ApplicationUser, String, long)}.
+ */
+public class RepositoryCommits
+{
+    public enum Status
+    {
+        /**
+         * All commits of the issue were found
+         */
+        COMPLETE,
+        /**
+         * Some commits of the issue were found before the deadline, others may be missing
+         */
+        PARTIAL,
+        /**
+         * No lookup of the issue's commits finished before the deadline
+         */
+        TIMED_OUT,
+        /**
+         * The log of the repository has not been parsed yet
+         */
+        NOT_INDEXED
+    }
+
+    private final Status status;
+    private final Set<CVSCommit> commits;
+
+    public RepositoryCommits(Status status, Set<CVSCommit> commits)
+    {
+        this.status = status;
+        this.commits = commits == null ? Collections.<CVSCommit>emptySet() : Collections.unmodifiableSet(commits);
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return the commits found, empty if the lookup timed out or the repository is not indexed
+     */
+    public Set<CVSCommit> getCommits()
+    {
+        return commits;
+    }
+}
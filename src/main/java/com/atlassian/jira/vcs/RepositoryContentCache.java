@@ -0,0 +1,135 @@
+package com.atlassian.jira.vcs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the repositories whose content is loaded, in the order they were last used.
+ * <p/>
+ * Whenever a repository is used or its content is parsed again, the estimated sizes of the loaded contents are added
+ * up. If they exceed the budget, the least recently used repositories are chosen to be unloaded until the rest fits.
+ * The repository just used or updated is never chosen, so a single repository larger than the budget stays loaded.
+ */
+public class RepositoryContentCache
+{
+    private final long budget;
+
+    // Access ordered: the least recently used repository comes first
+    private final LinkedHashMap<Long, Long> sizes = new LinkedHashMap<Long, Long>(16, 0.75f, true);
+    // Repositories chosen to be unloaded that have not been used since
+    private final Set<Long> unloaded = new HashSet<Long>();
+
+    /**
+     * @param budget the maximum estimated size in bytes of the loaded contents
+     */
+    public RepositoryContentCache(long budget)
+    {
+        this.budget = budget;
+    }
+
+    /**
+     * Records the use of a repository whose content is loaded.
+     *
+     * @param repositoryId id of the repository
+     * @param size         estimated size of the content of the repository in bytes
+     * @return the ids of the repositories to unload, least recently used first
+     */
+    public synchronized List<Long> used(Long repositoryId, long size)
+    {
+        sizes.put(repositoryId, size);
+        unloaded.remove(repositoryId);
+        return unloadToFit(repositoryId);
+    }
+
+    /**
+     * Records the new size of a repository whose content was parsed again by an update. Unlike a use, an update does
+     * not make the repository the most recently used one.
+     *
+     * @param repositoryId id of the repository
+     * @param size         estimated size of the content of the repository in bytes
+     * @return the ids of the repositories to unload, least recently used first
+     */
+    public synchronized List<Long> updated(Long repositoryId, long size)
+    {
+        // Setting the value of an entry does not count as an access, unlike putting it again
+        boolean known = false;
+        for (Map.Entry<Long, Long> entry : sizes.entrySet())
+        {
+            if (entry.getKey().equals(repositoryId))
+            {
+                entry.setValue(size);
+                known = true;
+                break;
+            }
+        }
+        if (!known)
+        {
+            sizes.put(repositoryId, size);
+        }
+        unloaded.remove(repositoryId);
+        return unloadToFit(repositoryId);
+    }
+
+    /**
+     * @param repositoryId id of the repository
+     * @return true if the repository was chosen to be unloaded to keep within the budget and has not been used since
+     */
+    public synchronized boolean isUnloaded(Long repositoryId)
+    {
+        return unloaded.contains(repositoryId);
+    }
+
+    /**
+     * Forgets a repository, e.g. when its content was unloaded for another reason or it was removed.
+     *
+     * @param repositoryId id of the repository
+     */
+    public synchronized void remove(Long repositoryId)
+    {
+        sizes.remove(repositoryId);
+        unloaded.remove(repositoryId);
+    }
+
+    /**
+     * @return the estimated size in bytes of the loaded contents
+     */
+    public synchronized long getLoadedSize()
+    {
+        long total = 0;
+        for (Long size : sizes.values())
+        {
+            total += size;
+        }
+        return total;
+    }
+
+    public long getBudget()
+    {
+        return budget;
+    }
+
+    private List<Long> unloadToFit(Long keepId)
+    {
+        long total = getLoadedSize();
+        final List<Long> unload = new ArrayList<Long>();
+        final Iterator<Map.Entry<Long, Long>> iterator = sizes.entrySet().iterator();
+        while (total > budget && iterator.hasNext())
+        {
+            final Map.Entry<Long, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keepId))
+            {
+                continue;
+            }
+            total -= eldest.getValue();
+            unload.add(eldest.getKey());
+            unloaded.add(eldest.getKey());
+            iterator.remove();
+        }
+        return unload;
+    }
+}
@@ -17,6 +17,8 @@ import org.ofbiz.core.entity.GenericEntityException;
 import org.ofbiz.core.entity.GenericValue;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -35,6 +37,7 @@ public interface RepositoryManager
     @ComponentImport
     public static final String CVS_TYPE = "cvs";
     public static final Collection<String> VCS_TYPES = CollectionBuilder.newBuilder(CVS_TYPE).asSet();
+
     public static final String VCS_SERVICE_NAME = "CVS Update Job";
     public static final long VCS_SERVICE_DELAY = 60 * 60 * 1000L;
 
@@ -187,6 +190,8 @@ public interface RepositoryManager
      * If the map is empty, there are no associated repositories for the issue and user.
      * If the List of {@link com.atlassian.jira.vcs.cvsimpl.CVSCommit} is null,
      * then the vcs log has not yet been parsed for that repository.
+     * This waits until all commits have been looked up, use
+     * {@link #getCommits(Issue, ApplicationUser, String, long)} to look them up within a time budget.
      *
      * @param issue is the issue which identifies the project which should be used to find {@link Repository}'s.
      * @param remoteUser is the user who's permissions will determine which commits are visible. This is the user
@@ -194,4 +199,182 @@ public interface RepositoryManager
      * @return map of (repository id -> List of {@link com.atlassian.jira.vcs.cvsimpl.CVSCommit})
      */
     public Map<Long, Set<CVSCommit>> getCommits(Issue issue, ApplicationUser remoteUser);
+
+    /**
+     * Like {@link #getCommits(Issue, ApplicationUser)}, but only returns the commits made on the given branch.
+     *
+     * @param issue      the issue to find the commits for
+     * @param remoteUser the user who's permissions will determine which commits are visible
+     * @param branch     the name of the branch, or null for all branches
+     * @return map of (repository id -> Set of {@link com.atlassian.jira.vcs.cvsimpl.CVSCommit})
+     */
+    public Map<Long, Set<CVSCommit>> getCommits(Issue issue, ApplicationUser remoteUser, String branch);
+
+    /**
+     * Looks up the commits of the issue made on the given branch until the deadline, and returns what was found by
+     * then. The commits of each repository are marked as complete, partial (some of them may be missing) or timed out,
+     * or as not indexed if the log of the repository has not been parsed yet. Only returns commits if the user has the
+     * {@link com.atlassian.jira.security.Permissions#VIEW_VERSION_CONTROL} permission.
+     *
+     * @param issue      the issue to find the commits for
+     * @param remoteUser the user who's permissions will determine which commits are visible
+     * @param branch     the name of the branch, or null for all branches
+     * @param deadline   the time (in milliseconds since the epoch) to stop looking up commits at
+     * @return map of (repository id -> {@link RepositoryCommits}), empty if there are no repositories or the user may
+     * not view them
+     */
+    public Map<Long, RepositoryCommits> getCommits(Issue issue, ApplicationUser remoteUser, String branch, long deadline);
+
+    /**
+     * @return the time in milliseconds the commits of an issue should be looked up for when viewing the issue, to
+     * compute the deadline of {@link #getCommits(Issue, ApplicationUser, String, long)}
+     */
+    public long getLookupTimeBudget();
+
+    /**
+     * Returns the names of the branches commits were made on in the repositories of the issue, if the user has the
+     * {@link com.atlassian.jira.security.Permissions#VIEW_VERSION_CONTROL} permission.
+     * The branches of repositories whose content is not loaded are left out until it has been loaded in the background.
+     *
+     * @param issue      the issue to find the repositories for
+     * @param remoteUser the user viewing the issue
+     * @return the sorted branch names, empty if there are none or the user may not view them
+     */
+    public Set<String> getBranchNames(Issue issue, ApplicationUser remoteUser);
+
+    /**
+     * Retrieves the {@link Repository}'s that {@link #getCommits(Issue, ApplicationUser)} searches for commits of the
+     * issue, i.e. the repositories of the issue's current project and of the projects the issue was moved from.
+     * No permission check is done.
+     *
+     * @param issue the issue to find the repositories for
+     * @return collection of {@link Repository}'s, empty if there are none
+     */
+    public Collection<Repository> getRepositoriesForIssue(Issue issue);
+
+    /**
+     * Queues an update of the CVS repositories affected by a commit, e.g. when notified by a <code>loginfo</code> hook.
+     * The update runs shortly afterwards in the background; further requests for the same repository made before it
+     * starts are merged into it.
+     *
+     * @param moduleName   the module (or directory of the module) committed to
+     * @param changedPaths the changed paths relative to the CVS root, may be empty
+     * @return the repositories an update was queued for, empty if no repository is affected
+     */
+    public Collection<Repository> scheduleRefresh(String moduleName, Collection<String> changedPaths);
+
+    /**
+     * Starts a full test of the repository in the background: its whole log is fetched into a temporary file (unless
+     * the log is maintained outside of JIRA) and parsed. Only one test runs at a time.
+     *
+     * @param id the id of the repository
+     * @return the result of the started test, or of the test already running for the repository
+     * @throws GenericEntityException if the repository cannot be retrieved
+     */
+    public RepositoryTestResult startRepositoryTest(Long id) throws GenericEntityException;
+
+    /**
+     * @param id the id of the repository
+     * @return the result of the last full test of the repository, null if it has not been tested since JIRA started
+     */
+    public RepositoryTestResult getRepositoryTestResult(Long id);
+
+    /**
+     * Repositories whose updates keep failing are skipped by the VCS service for an increasing period of time, see
+     * {@link RepositoryCircuitBreaker}.
+     *
+     * @param id the id of the repository
+     * @return the state of the circuit breaker of the repository, null if its last update succeeded
+     */
+    public RepositoryCircuitBreaker.CircuitStatus getCircuitStatus(Long id);
+
+    /**
+     * @return the estimated memory retained by the loaded contents of all repositories in bytes
+     */
+    public long getLoadedContentSize();
+
+    /**
+     * The least recently used contents are unloaded when the loaded contents exceed the budget, and loaded again when
+     * their repository is queried.
+     *
+     * @return the budget in bytes of the memory retained by the loaded contents of all repositories
+     */
+    public long getContentBudget();
+
+    /**
+     * Loads the full history of a repository whose retention limits the history kept, see
+     * {@link com.atlassian.jira.vcs.cvsimpl.CvsRepository#KEY_RETENTION}. The repository is updated in the background
+     * and keeps its full history until it is reconfigured or JIRA is restarted.
+     *
+     * @param id the id of the repository
+     * @throws GenericEntityException if the repository cannot be retrieved
+     */
+    public void loadFullHistory(Long id) throws GenericEntityException;
+
+    /**
+     * Returns the commits made by a CVS user in a period, across all repositories. Only commits referencing an issue of a
+     * project associated with their repository, in which the given user may view the version control information, are
+     * returned. The commits are found through the author and date index of each repository.
+     * Repositories whose content is not loaded are skipped, and their content is loaded in the background if it fits
+     * within the memory budget.
+     *
+     * @param author          the CVS login of the author
+     * @param from            the start of the period (inclusive), or null for no lower bound
+     * @param to              the end of the period (exclusive), or null for no upper bound
+     * @param applicationUser the user viewing the commits
+     * @return the commits sorted by date, newest first
+     */
+    public List<CVSCommit> getCommitsByAuthor(String author, Date from, Date to, ApplicationUser applicationUser);
+
+    /**
+     * Returns the commit activity of a project across its repositories. The activity is maintained while the
+     * repositories are updated, so this does not scan the content of the repositories.
+     * Repositories whose content is not loaded do not add to the activity until it has been loaded in the background.
+     *
+     * @param project the project
+     * @return the commit activity of the project
+     * @throws GenericEntityException if the repositories of the project cannot be retrieved
+     */
+    public ProjectCommitActivity getCommitActivity(Project project) throws GenericEntityException;
+
+    /**
+     * Searches the comments and file paths of the commits of all repositories. A commit matches if it contains all words
+     * of the query. Only commits referencing an issue of a project associated with their repository, in which the given
+     * user may view the version control information, are returned.
+     * Repositories whose content is not loaded are skipped, and their content is loaded in the background if it fits
+     * within the memory budget.
+     *
+     * @param query           the words to search for
+     * @param limit           the maximum number of commits to return
+     * @param applicationUser the user searching
+     * @return the matching commits sorted by date, newest first
+     */
+    public List<CVSCommit> searchCommits(String query, int limit, ApplicationUser applicationUser);
+
+    /**
+     * Returns the keys of the issues referenced by a commit matching the given filters. Only issues of projects
+     * associated with the repository of the commit, in which the given user may view the version control information,
+     * are returned.
+     * A repository given by name is loaded if its content is not loaded. Across all repositories, the repositories whose
+     * content is not loaded are skipped and logged, see {@link #getUnloadedRepositoryNames(ApplicationUser)}, and
+     * their content is loaded in the background if it fits within the memory budget.
+     *
+     * @param repositoryName  the name of the repository, or null for all repositories
+     * @param from            the earliest commit date (inclusive), or null for no lower bound
+     * @param author          the CVS login of the author, or null for all authors
+     * @param branch          the name of the branch, or null for all branches
+     * @param applicationUser the user searching
+     * @return the issue keys, as written in the commit comments
+     */
+    public Set<String> getCommittedIssueKeys(String repositoryName, Date from, String author, String branch, ApplicationUser applicationUser);
+
+    /**
+     * Returns the names of the repositories, with a project in which the given user may view the version control
+     * information, whose content is not loaded. Queries across all repositories skip them until their content has been
+     * loaded or their log has been parsed for the first time.
+     *
+     * @param applicationUser the user searching
+     * @return the names of the repositories, sorted
+     */
+    public Set<String> getUnloadedRepositoryNames(ApplicationUser applicationUser);
 }
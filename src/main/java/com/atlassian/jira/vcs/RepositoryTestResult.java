@@ -0,0 +1,79 @@
+package com.atlassian.jira.vcs;
+
+import java.util.Date;
+
+/**
+ * The outcome of a full test of a repository run in the background, see
+ * {@link RepositoryManager#startRepositoryTest(Long)}.
+ */
+public class RepositoryTestResult
+{
+    public enum Status
+    {
+        RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final Status status;
+    private final int commitCount;
+    private final String message;
+    private final Date started;
+    private final Date finished;
+
+    private RepositoryTestResult(Status status, int commitCount, String message, Date started, Date finished)
+    {
+        this.status = status;
+        this.commitCount = commitCount;
+        this.message = message;
+        this.started = started;
+        this.finished = finished;
+    }
+
+    public static RepositoryTestResult running()
+    {
+        return new RepositoryTestResult(Status.RUNNING, 0, null, new Date(), null);
+    }
+
+    public RepositoryTestResult succeeded(int commitCount)
+    {
+        return new RepositoryTestResult(Status.SUCCEEDED, commitCount, null, started, new Date());
+    }
+
+    public RepositoryTestResult failed(String message)
+    {
+        return new RepositoryTestResult(Status.FAILED, 0, message, started, new Date());
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * @return the number of relevant commits found in the log if the test succeeded
+     */
+    public int getCommitCount()
+    {
+        return commitCount;
+    }
+
+    /**
+     * @return the error if the test failed, null otherwise
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public Date getStarted()
+    {
+        return started;
+    }
+
+    /**
+     * @return when the test finished, null while it is running
+     */
+    public Date getFinished()
+    {
+        return finished;
+    }
+}
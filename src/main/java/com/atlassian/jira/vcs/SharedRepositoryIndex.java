@@ -0,0 +1,291 @@
+package com.atlassian.jira.vcs;
+
+import com.atlassian.jira.util.Lock;
+import com.atlassian.jira.util.LockException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * A repository index shared by all the nodes of a JIRA cluster through a directory in the shared home.
+ * <p/>
+ * One node holds a lease on the index and is the only one fetching the CVS logs. When a fetched log differs from the
+ * published one, it publishes the log as a snapshot together with a generation marker. The other nodes compare the
+ * marker with the generation they have loaded and only copy the snapshot when it has changed, so the CVS server is
+ * contacted once per cluster instead of once per node.
+ * <p/>
+ * Only the raw log is shared, as the parsed statcvs content cannot be serialized: every node still parses the published
+ * log itself.
+ */
+public class SharedRepositoryIndex
+{
+    private static final Logger log = Logger.getLogger(SharedRepositoryIndex.class);
+
+    private static final String LEASE_FILE_NAME = "leader.properties";
+    private static final String LEASE_LOCK_NAME = "leader.write.lock";
+    private static final String SNAPSHOT_SUFFIX = ".log";
+    private static final String GENERATION_SUFFIX = ".generation";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String KEY_NODE_ID = "node";
+    private static final String KEY_EXPIRES = "expires";
+    private static final int LOCK_OBTAIN_TIMEOUT = 10000; // 10 seconds
+    // A lock held longer than this was left behind by a node that died while holding it
+    private static final long STALE_LOCK_AGE = 60 * 1000L;
+
+    private final File directory;
+
+    public SharedRepositoryIndex(File directory)
+    {
+        this.directory = directory;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Tries to obtain or renew the lease on this index for the given node. Only the node holding the lease should
+     * fetch and publish logs.
+     *
+     * @param nodeId        id of the cluster node
+     * @param leaseDuration how long the lease is valid for in ms if it is not renewed
+     * @return true if the given node holds the lease
+     * @throws LockException if the lease could not be read or written
+     */
+    public boolean tryAcquireLease(String nodeId, long leaseDuration) throws LockException
+    {
+        final Lock lock = obtainLeaseLock();
+        try
+        {
+            final Properties lease = readLease();
+            final String holder = lease.getProperty(KEY_NODE_ID);
+            final long expires = NumberUtils.toLong(lease.getProperty(KEY_EXPIRES), 0);
+            final long now = System.currentTimeMillis();
+
+            if (holder != null && !holder.equals(nodeId) && expires > now)
+            {
+                return false;
+            }
+
+            if (holder != null && !holder.equals(nodeId))
+            {
+                log.info("Lease of node '" + holder + "' on the shared CVS index expired - node '" + nodeId + "' takes over.");
+            }
+
+            final Properties renewed = new Properties();
+            renewed.setProperty(KEY_NODE_ID, nodeId);
+            renewed.setProperty(KEY_EXPIRES, String.valueOf(now + leaseDuration));
+            writeLease(renewed);
+            return true;
+        }
+        catch (IOException e)
+        {
+            throw new LockException("Could not update lease on shared CVS index in '" + directory.getAbsolutePath() + "'.", e);
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    /**
+     * Gives up the lease if it is held by the given node, so that another node can take over straight away.
+     *
+     * @param nodeId id of the cluster node
+     */
+    public void releaseLease(String nodeId) throws LockException
+    {
+        final Lock lock = obtainLeaseLock();
+        try
+        {
+            if (nodeId.equals(readLease().getProperty(KEY_NODE_ID)))
+            {
+                FileUtils.deleteQuietly(new File(directory, LEASE_FILE_NAME));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new LockException("Could not release lease on shared CVS index in '" + directory.getAbsolutePath() + "'.", e);
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    /**
+     * Publishes the given log as the snapshot of the repository and increments its generation, if the given node still
+     * holds the lease. The log is copied before the lease is checked, so the lease lock is only held while the snapshot
+     * and the marker are replaced.
+     *
+     * @param nodeId       id of the cluster node publishing the log
+     * @param repositoryId id of the repository
+     * @param logFile      the fetched log
+     * @return the new generation of the repository, 0 if the node does not hold the lease and nothing was published
+     * @throws IOException   if the snapshot could not be written
+     * @throws LockException if the lease could not be read
+     */
+    public synchronized long publish(String nodeId, Long repositoryId, File logFile) throws IOException, LockException
+    {
+        final File snapshot = getSnapshot(repositoryId);
+        // A node that lost the lease may still be copying, so each node copies to its own file
+        final File tempSnapshot = new File(directory, snapshot.getName() + '.' + nodeId + TEMP_SUFFIX);
+        FileUtils.copyFile(logFile, tempSnapshot);
+
+        final Lock lock = obtainLeaseLock();
+        try
+        {
+            if (!isLeaseHolder(nodeId))
+            {
+                log.warn("Node '" + nodeId + "' no longer holds the lease on the shared CVS index - not publishing the log of repository with id '"
+                        + repositoryId + "'.");
+                FileUtils.deleteQuietly(tempSnapshot);
+                return 0;
+            }
+            replace(tempSnapshot, snapshot);
+
+            // The marker is written after the snapshot so that readers never see a new generation with an old snapshot
+            final long generation = getGeneration(repositoryId) + 1;
+            final File marker = getGenerationFile(repositoryId);
+            final File tempMarker = new File(directory, marker.getName() + TEMP_SUFFIX);
+            FileUtils.writeStringToFile(tempMarker, String.valueOf(generation), "UTF-8");
+            replace(tempMarker, marker);
+
+            if (log.isDebugEnabled())
+            {
+                log.debug("Published generation " + generation + " of repository with id '" + repositoryId + "'.");
+            }
+            return generation;
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    /**
+     * Returns the generation of the snapshot published for the repository.
+     *
+     * @param repositoryId id of the repository
+     * @return the generation, 0 if nothing has been published yet
+     * @throws IOException if the marker could not be read
+     */
+    public long getGeneration(Long repositoryId) throws IOException
+    {
+        final File marker = getGenerationFile(repositoryId);
+        if (!marker.exists())
+        {
+            return 0;
+        }
+        return NumberUtils.toLong(FileUtils.readFileToString(marker, "UTF-8").trim(), 0);
+    }
+
+    /**
+     * Returns the snapshot file of the repository. The file may not exist if nothing was published yet.
+     *
+     * @param repositoryId id of the repository
+     * @return the snapshot file
+     */
+    public File getSnapshot(Long repositoryId)
+    {
+        return new File(directory, repositoryId + SNAPSHOT_SUFFIX);
+    }
+
+    private File getGenerationFile(Long repositoryId)
+    {
+        return new File(directory, repositoryId + GENERATION_SUFFIX);
+    }
+
+    private boolean isLeaseHolder(String nodeId) throws IOException
+    {
+        final Properties lease = readLease();
+        return nodeId.equals(lease.getProperty(KEY_NODE_ID)) && NumberUtils.toLong(lease.getProperty(KEY_EXPIRES), 0) > System.currentTimeMillis();
+    }
+
+    private Lock obtainLeaseLock() throws LockException
+    {
+        if (!directory.exists() && !directory.mkdirs())
+        {
+            throw new LockException("Could not create shared CVS index directory '" + directory.getAbsolutePath() + "'.");
+        }
+
+        final Lock lock = new Lock(directory.getAbsolutePath(), LEASE_LOCK_NAME);
+        final File lockFile = new File(lock.getLockFilePath());
+        if (lockFile.exists() && System.currentTimeMillis() - lockFile.lastModified() > STALE_LOCK_AGE)
+        {
+            log.warn("Removing stale lock '" + lockFile.getAbsolutePath() + "'.");
+            FileUtils.deleteQuietly(lockFile);
+        }
+
+        try
+        {
+            if (!lock.obtain(LOCK_OBTAIN_TIMEOUT))
+            {
+                throw new LockException("Could not obtain lock '" + lock.getLockFilePath() + "' in " + LOCK_OBTAIN_TIMEOUT + " msecs.");
+            }
+        }
+        catch (IOException e)
+        {
+            throw new LockException(e.getMessage(), e);
+        }
+        return lock;
+    }
+
+    private Properties readLease() throws IOException
+    {
+        final Properties lease = new Properties();
+        final File leaseFile = new File(directory, LEASE_FILE_NAME);
+        if (leaseFile.exists())
+        {
+            final InputStream in = new FileInputStream(leaseFile);
+            try
+            {
+                lease.load(in);
+            }
+            finally
+            {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return lease;
+    }
+
+    private void writeLease(Properties lease) throws IOException
+    {
+        final File leaseFile = new File(directory, LEASE_FILE_NAME);
+        final File tempLeaseFile = new File(directory, LEASE_FILE_NAME + TEMP_SUFFIX);
+        final OutputStream out = new FileOutputStream(tempLeaseFile);
+        try
+        {
+            lease.store(out, "Holder of the shared CVS index lease");
+        }
+        finally
+        {
+            IOUtils.closeQuietly(out);
+        }
+        replace(tempLeaseFile, leaseFile);
+    }
+
+    private static void replace(File source, File target) throws IOException
+    {
+        // Renaming within the same directory does not expose a half written file to the other nodes
+        if (!source.renameTo(target))
+        {
+            FileUtils.deleteQuietly(target);
+            if (!source.renameTo(target))
+            {
+                throw new IOException("Could not rename '" + source.getAbsolutePath() + "' to '" + target.getAbsolutePath() + "'.");
+            }
+        }
+    }
+}
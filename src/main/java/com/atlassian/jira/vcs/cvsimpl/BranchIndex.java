@@ -0,0 +1,80 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import net.sf.statcvs.input.CommitListBuilder;
+import net.sf.statcvs.model.Commit;
+import net.sf.statcvs.model.CvsRevision;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The parsed revisions of a repository partitioned by the branch of the commit they belong to. The branch of each
+ * commit is resolved once while the index is built, so filtering commits by branch only needs to look at the revisions
+ * of that branch. The index is immutable and is rebuilt whenever the revisions of the repository change.
+ */
+public final class BranchIndex
+{
+    private final Map<String, SortedSet<CvsRevision>> byBranch;
+
+    /**
+     * @param revisions the revisions of the repository, in the order of their dates
+     */
+    public BranchIndex(SortedSet<CvsRevision> revisions)
+    {
+        final Map<String, SortedSet<CvsRevision>> partitions = new HashMap<String, SortedSet<CvsRevision>>();
+        if (!revisions.isEmpty())
+        {
+            @SuppressWarnings ({ "unchecked" }) final List<Commit> commits = new CommitListBuilder(revisions).createCommitList();
+            for (Commit commit : commits)
+            {
+                final String branch = commit.getMainBranch() == null ? null : commit.getMainBranch().getName();
+                SortedSet<CvsRevision> partition = partitions.get(branch);
+                if (partition == null)
+                {
+                    partition = new TreeSet<CvsRevision>();
+                    partitions.put(branch, partition);
+                }
+                @SuppressWarnings ({ "unchecked" }) final Collection<CvsRevision> commitRevisions = commit.getRevisions();
+                partition.addAll(commitRevisions);
+            }
+        }
+
+        this.byBranch = new HashMap<String, SortedSet<CvsRevision>>(partitions.size() * 4 / 3 + 1);
+        for (Map.Entry<String, SortedSet<CvsRevision>> entry : partitions.entrySet())
+        {
+            byBranch.put(entry.getKey(), Collections.unmodifiableSortedSet(entry.getValue()));
+        }
+    }
+
+    /**
+     * @param branch the name of the branch
+     * @return the revisions of the commits on the branch, sorted by date
+     */
+    public SortedSet<CvsRevision> getRevisions(String branch)
+    {
+        final SortedSet<CvsRevision> revisions = byBranch.get(branch);
+        return revisions == null ? Collections.unmodifiableSortedSet(new TreeSet<CvsRevision>()) : revisions;
+    }
+
+    /**
+     * @return the names of the branches commits were made on
+     */
+    public Set<String> getBranchNames()
+    {
+        final Set<String> branchNames = new TreeSet<String>();
+        for (String branch : byBranch.keySet())
+        {
+            if (branch != null)
+            {
+                branchNames.add(branch);
+            }
+        }
+        return branchNames;
+    }
+}
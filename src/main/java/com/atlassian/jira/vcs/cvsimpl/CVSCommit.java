@@ -11,15 +11,26 @@ import net.sf.statcvs.model.Commit;
 import java.util.Collection;
 import java.util.Date;
 
+/**
+ * A commit of a repository as shown for an issue. Two instances are equal if they have the same
+ * {@link CommitIdentity}, even if they were built from different statcvs {@link Commit}s.
+ */
 public class CVSCommit
 {
     private final Commit commit;
     private Repository repository;
+    private final CommitIdentity identity;
+    private final String branchName;
 
     public CVSCommit(Commit commit, Repository repository)
     {
         this.commit = commit;
         this.repository = repository;
+        // Resolved once, the branch is shown every time the commit is rendered
+        this.branchName = commit.getMainBranch().getName();
+        final CommitIdentity parsedIdentity = repository instanceof CvsRepository ? ((CvsRepository) repository).getCommitIdentity(commit) : null;
+        // Built from the comment as stored, which may be a placeholder of a comment stored outside of the heap
+        this.identity = parsedIdentity != null ? parsedIdentity : new CommitIdentity(repository == null ? null : repository.getId(), getUsername(), getTimePerformed(), commit.getComment());
     }
 
     public Date getTimePerformed()
@@ -34,9 +45,19 @@ public class CVSCommit
 
     public String getComment()
     {
+        if (repository instanceof CvsRepository)
+        {
+            // The comment may be stored outside of the heap and is only decoded when it is rendered
+            return ((CvsRepository) repository).resolveComment(commit.getComment());
+        }
         return commit.getComment();
     }
 
+    public CommitIdentity getIdentity()
+    {
+        return identity;
+    }
+
     public String getRepositoryName()
     {
         return repository.getName();
@@ -44,7 +65,7 @@ public class CVSCommit
 
     public String getBranchName()
     {
-        return commit.getMainBranch().getName();
+        return branchName;
     }
 
     public Collection getRevisions()
@@ -92,4 +113,17 @@ public class CVSCommit
             throw new IllegalStateException("Cannot return diff link as repositoryBrowser is not set.");
         }
     }
+
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof CVSCommit)) return false;
+
+        return identity.equals(((CVSCommit) o).identity);
+    }
+
+    public int hashCode()
+    {
+        return identity.hashCode();
+    }
 }
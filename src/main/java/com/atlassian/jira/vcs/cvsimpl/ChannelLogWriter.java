@@ -0,0 +1,174 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writes the lines of a fetched CVS log to a channel. The characters are encoded straight into a large direct buffer,
+ * which is written to the channel whenever it is full. There is no intermediate character buffer, and a file channel
+ * writes the direct buffer without copying it to native memory first.
+ * <p/>
+ * Characters that cannot be encoded in the charset are replaced, like {@link java.io.OutputStreamWriter} does. The
+ * writer is not thread safe.
+ */
+public class ChannelLogWriter extends Writer
+{
+    private static final CharBuffer NO_CHARS = CharBuffer.allocate(0);
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buffer;
+    private final CharBuffer lineSeparator;
+    private final boolean force;
+
+    // High surrogate at the end of the last write, encoded with the low surrogate starting the next write
+    private Character pendingSurrogate;
+    private boolean closed;
+
+    /**
+     * @param channel       the channel to write to, closed with the writer
+     * @param charset       the charset to encode the characters with
+     * @param lineSeparator the separator written after each line
+     * @param bufferSize    the size of the direct buffer in bytes
+     * @param force         whether to force the written bytes to the storage device when the writer is closed, only
+     *                      applies to file channels
+     */
+    public ChannelLogWriter(WritableByteChannel channel, Charset charset, String lineSeparator, int bufferSize, boolean force)
+    {
+        this.channel = channel;
+        this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.lineSeparator = CharBuffer.wrap(lineSeparator).asReadOnlyBuffer();
+        this.force = force;
+    }
+
+    /**
+     * Writes a line followed by the line separator.
+     *
+     * @param line the line, without line separator
+     * @throws IOException if the channel cannot be written to
+     */
+    public void writeLine(String line) throws IOException
+    {
+        ensureOpen();
+        encode(CharBuffer.wrap(line));
+        encode(lineSeparator.duplicate());
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        ensureOpen();
+        encode(CharBuffer.wrap(str, off, off + len));
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        ensureOpen();
+        encode(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        ensureOpen();
+        drain();
+    }
+
+    /**
+     * Encodes the remaining characters, writes the buffered bytes and closes the channel.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+
+        try
+        {
+            // A surrogate that was never completed is replaced as malformed input
+            encode(pendingSurrogate == null ? NO_CHARS : CharBuffer.wrap(new char[] { pendingSurrogate }), true);
+            while (encoder.flush(buffer).isOverflow())
+            {
+                drain();
+            }
+            drain();
+            if (force && channel instanceof FileChannel)
+            {
+                ((FileChannel) channel).force(true);
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private void encode(CharBuffer chars) throws IOException
+    {
+        while (pendingSurrogate != null && chars.hasRemaining())
+        {
+            final CharBuffer pair = CharBuffer.wrap(new char[] { pendingSurrogate, chars.get() });
+            pendingSurrogate = null;
+            encode(pair);
+        }
+        encode(chars, false);
+        if (chars.hasRemaining())
+        {
+            pendingSurrogate = chars.get();
+        }
+    }
+
+    private void encode(CharBuffer chars, boolean endOfInput) throws IOException
+    {
+        while (true)
+        {
+            final CoderResult result = encoder.encode(chars, buffer, endOfInput);
+            if (result.isUnderflow())
+            {
+                return;
+            }
+            if (result.isOverflow())
+            {
+                drain();
+            }
+            else
+            {
+                result.throwException();
+            }
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Writer closed");
+        }
+    }
+}
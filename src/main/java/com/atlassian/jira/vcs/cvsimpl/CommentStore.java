@@ -0,0 +1,170 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import com.atlassian.jira.util.JiraKeyUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the text of commit comments in direct buffers outside of the Java heap.
+ * <p/>
+ * While a log is parsed each distinct comment is written once to the store and the revision keeps a short placeholder
+ * instead of the comment. The placeholder contains the issue keys of the comment, so commits can still be matched to
+ * issues without decoding, and the id of the stored comment. Identical comments share the same placeholder, which keeps
+ * the revisions of a single commit grouped together. The comment text is only decoded when it is rendered.
+ */
+public class CommentStore
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int CHUNK_SIZE = 1024 * 1024; // 1MB
+    private static final char ID_SEPARATOR = '\u0000';
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private int[] entryChunks = new int[INITIAL_CAPACITY];
+    private int[] entryOffsets = new int[INITIAL_CAPACITY];
+    private int[] entryLengths = new int[INITIAL_CAPACITY];
+    private int size;
+    private long storedBytes;
+
+    /**
+     * Placeholders of the comments stored so far. Only needed while the log is parsed.
+     */
+    private Map<String, String> placeholders = new HashMap<String, String>();
+
+    /**
+     * Stores the comment and returns the placeholder that should be kept on the heap instead.
+     *
+     * @param comment comment of a revision
+     * @return placeholder of the comment
+     */
+    public synchronized String store(String comment)
+    {
+        if (comment == null)
+        {
+            return null;
+        }
+        if (placeholders == null)
+        {
+            // Storing more comments after sealing (e.g. when parsing the tail of a log), identical comments are only
+            // shared with comments stored since
+            placeholders = new HashMap<String, String>();
+        }
+
+        String placeholder = placeholders.get(comment);
+        if (placeholder == null)
+        {
+            placeholder = createPlaceholder(comment, write(comment.getBytes(UTF_8)));
+            placeholders.put(comment, placeholder);
+        }
+        return placeholder;
+    }
+
+    /**
+     * Releases the data only needed while parsing.
+     */
+    public synchronized void seal()
+    {
+        placeholders = null;
+    }
+
+    /**
+     * Returns the comment the given placeholder stands for.
+     *
+     * @param placeholder a placeholder returned by {@link #store(String)}
+     * @return the comment, or the given string if it is not a placeholder of this store
+     */
+    public String resolve(String placeholder)
+    {
+        if (placeholder == null)
+        {
+            return null;
+        }
+        final int separator = placeholder.lastIndexOf(ID_SEPARATOR);
+        if (separator < 0)
+        {
+            return placeholder;
+        }
+
+        final int id;
+        try
+        {
+            id = Integer.parseInt(placeholder.substring(separator + 1));
+        }
+        catch (NumberFormatException e)
+        {
+            return placeholder;
+        }
+
+        final ByteBuffer entry;
+        synchronized (this)
+        {
+            if (id < 0 || id >= size)
+            {
+                return placeholder;
+            }
+            entry = chunks.get(entryChunks[id]).duplicate();
+            entry.limit(entryOffsets[id] + entryLengths[id]);
+            entry.position(entryOffsets[id]);
+        }
+        return UTF_8.decode(entry).toString();
+    }
+
+    /**
+     * @return number of distinct comments stored
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return number of bytes stored outside of the heap
+     */
+    public synchronized long getStoredBytes()
+    {
+        return storedBytes;
+    }
+
+    private int write(byte[] bytes)
+    {
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < bytes.length)
+        {
+            // Comments larger than a chunk get a buffer of their own
+            chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, bytes.length));
+            chunks.add(chunk);
+        }
+
+        if (size == entryChunks.length)
+        {
+            final int capacity = size * 2;
+            entryChunks = Arrays.copyOf(entryChunks, capacity);
+            entryOffsets = Arrays.copyOf(entryOffsets, capacity);
+            entryLengths = Arrays.copyOf(entryLengths, capacity);
+        }
+
+        entryChunks[size] = chunks.size() - 1;
+        entryOffsets[size] = chunk.position();
+        entryLengths[size] = bytes.length;
+        chunk.put(bytes);
+        storedBytes += bytes.length;
+        return size++;
+    }
+
+    private static String createPlaceholder(String comment, int id)
+    {
+        final StringBuilder placeholder = new StringBuilder();
+        @SuppressWarnings ({ "unchecked" }) final List<String> issueKeys = JiraKeyUtils.getIssueKeysFromString(comment);
+        for (String issueKey : issueKeys)
+        {
+            placeholder.append(issueKey).append(' ');
+        }
+        return placeholder.append(ID_SEPARATOR).append(id).toString();
+    }
+}
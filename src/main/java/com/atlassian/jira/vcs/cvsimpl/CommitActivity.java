@@ -0,0 +1,199 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import com.atlassian.jira.util.JiraKeyUtils;
+import net.sf.statcvs.input.CommitListBuilder;
+import net.sf.statcvs.model.Commit;
+import net.sf.statcvs.model.CvsRevision;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * Commit activity of a project in a repository: the number of commits per week, the number of commits per author and
+ * the number of changes per file.
+ * <p/>
+ * Activities are computed once per repository update from the revisions that were parsed and merged with the activity
+ * computed before, so showing them never needs to scan the content of a repository. Instances are not modified once
+ * they have been built.
+ */
+public final class CommitActivity
+{
+    public static final long WEEK = 7 * 24 * 60 * 60 * 1000L;
+
+    public static final CommitActivity EMPTY = new CommitActivity();
+
+    private final Map<Long, Integer> weeklyCommits = new HashMap<Long, Integer>();
+    private final Map<String, Integer> authorCommits = new HashMap<String, Integer>();
+    private final Map<String, Integer> fileChanges = new HashMap<String, Integer>();
+
+    private CommitActivity()
+    {
+    }
+
+    /**
+     * Computes the activity of every project referenced by the given revisions. A commit counts for each project it
+     * references an issue of.
+     *
+     * @param revisions the revisions to compute the activity of, in the order of their dates
+     * @return map of project key -> activity of the project
+     */
+    public static Map<String, CommitActivity> byProjectKey(SortedSet<CvsRevision> revisions)
+    {
+        final Map<String, CommitActivity> activities = new HashMap<String, CommitActivity>();
+        if (revisions.isEmpty())
+        {
+            return activities;
+        }
+
+        @SuppressWarnings ({ "unchecked" }) final List<Commit> commits = new CommitListBuilder(revisions).createCommitList();
+        for (Commit commit : commits)
+        {
+            for (String projectKey : getProjectKeys(commit.getComment()))
+            {
+                CommitActivity activity = activities.get(projectKey);
+                if (activity == null)
+                {
+                    activity = new CommitActivity();
+                    activities.put(projectKey, activity);
+                }
+                activity.add(commit);
+            }
+        }
+        return activities;
+    }
+
+    /**
+     * Merges the activities of the revisions parsed since with the given activities.
+     *
+     * @param activities      activities computed before, not modified
+     * @param addedActivities activities of the revisions parsed since, not modified
+     * @return the merged activities
+     */
+    public static Map<String, CommitActivity> merge(Map<String, CommitActivity> activities, Map<String, CommitActivity> addedActivities)
+    {
+        final Map<String, CommitActivity> merged = new HashMap<String, CommitActivity>(activities);
+        for (Map.Entry<String, CommitActivity> entry : addedActivities.entrySet())
+        {
+            final CommitActivity activity = merged.get(entry.getKey());
+            merged.put(entry.getKey(), activity == null ? entry.getValue() : activity.merge(entry.getValue()));
+        }
+        return merged;
+    }
+
+    /**
+     * @param other another activity
+     * @return a new activity with the counts of this and the other activity
+     */
+    public CommitActivity merge(CommitActivity other)
+    {
+        final CommitActivity merged = new CommitActivity();
+        merged.addAll(this);
+        merged.addAll(other);
+        return merged;
+    }
+
+    /**
+     * @param now   the current time
+     * @param weeks number of weeks
+     * @return the number of commits in each of the given number of weeks up to now, oldest week first
+     */
+    public int[] getWeeklyCommits(long now, int weeks)
+    {
+        final int[] counts = new int[weeks];
+        final long currentWeek = now / WEEK;
+        for (int i = 0; i < weeks; i++)
+        {
+            final Integer count = weeklyCommits.get(currentWeek - (weeks - 1 - i));
+            counts[i] = count == null ? 0 : count;
+        }
+        return counts;
+    }
+
+    /**
+     * @param limit maximum number of authors
+     * @return the authors with the most commits and their number of commits, most active first
+     */
+    public List<Map.Entry<String, Integer>> getTopAuthors(int limit)
+    {
+        return getTop(authorCommits, limit);
+    }
+
+    /**
+     * @param limit maximum number of files
+     * @return the files changed most often and their number of changes, most changed first
+     */
+    public List<Map.Entry<String, Integer>> getMostChangedFiles(int limit)
+    {
+        return getTop(fileChanges, limit);
+    }
+
+    private void add(Commit commit)
+    {
+        increment(weeklyCommits, commit.getDate().getTime() / WEEK, 1);
+        increment(authorCommits, commit.getAuthor().getName(), 1);
+        @SuppressWarnings ({ "unchecked" }) final Collection<CvsRevision> revisions = commit.getRevisions();
+        for (CvsRevision revision : revisions)
+        {
+            increment(fileChanges, revision.getFile().getFilenameWithPath(), 1);
+        }
+    }
+
+    private void addAll(CommitActivity activity)
+    {
+        for (Map.Entry<Long, Integer> entry : activity.weeklyCommits.entrySet())
+        {
+            increment(weeklyCommits, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : activity.authorCommits.entrySet())
+        {
+            increment(authorCommits, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : activity.fileChanges.entrySet())
+        {
+            increment(fileChanges, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static <K> void increment(Map<K, Integer> counts, K key, int by)
+    {
+        final Integer count = counts.get(key);
+        counts.put(key, count == null ? by : count + by);
+    }
+
+    private static List<Map.Entry<String, Integer>> getTop(Map<String, Integer> counts, int limit)
+    {
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>()
+        {
+            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2)
+            {
+                final int byCount = o2.getValue().compareTo(o1.getValue());
+                return byCount != 0 ? byCount : o1.getKey().compareTo(o2.getKey());
+            }
+        });
+        return Collections.unmodifiableList(entries.subList(0, Math.min(limit, entries.size())));
+    }
+
+    private static Set<String> getProjectKeys(String comment)
+    {
+        final Set<String> projectKeys = new HashSet<String>();
+        if (comment != null)
+        {
+            // Placeholders of comments stored outside of the heap still contain the issue keys of the comment
+            @SuppressWarnings ({ "unchecked" }) final List<String> issueKeys = JiraKeyUtils.getIssueKeysFromString(comment);
+            for (String issueKey : issueKeys)
+            {
+                projectKeys.add(JiraKeyUtils.getProjectKeyFromIssueKey(issueKey));
+            }
+        }
+        return projectKeys;
+    }
+}
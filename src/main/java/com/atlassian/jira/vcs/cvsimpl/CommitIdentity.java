@@ -0,0 +1,59 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import java.util.Date;
+
+/**
+ * Identifies a commit of a repository independently of the statcvs {@link net.sf.statcvs.model.Commit} instance it was
+ * built from, so that the same commit matched through several issue keys is only shown once.
+ * <p/>
+ * CVS has no commit ids. Revisions are grouped into commits by author, comment and time, so the identity is made of the
+ * repository, the author, the time of the commit truncated to {@link #TIME_BUCKET} and the comment. The comment is the
+ * one stored with the revisions, which is a short placeholder if the comment text is stored outside of the heap. Only
+ * the hash code uses the hash of the comment, commits whose comments have the same hash are still different.
+ */
+public final class CommitIdentity
+{
+    /**
+     * Revisions committed by the same author with the same comment within this period form a single commit
+     */
+    static final long TIME_BUCKET = 5 * 60 * 1000L;
+
+    private final Long repositoryId;
+    private final String author;
+    private final long timeBucket;
+    private final String comment;
+
+    public CommitIdentity(Long repositoryId, String author, Date date, String comment)
+    {
+        this.repositoryId = repositoryId;
+        this.author = author;
+        this.timeBucket = date == null ? 0 : date.getTime() / TIME_BUCKET;
+        this.comment = comment;
+    }
+
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof CommitIdentity)) return false;
+
+        final CommitIdentity commitIdentity = (CommitIdentity) o;
+        if (timeBucket != commitIdentity.timeBucket) return false;
+        if (repositoryId != null ? !repositoryId.equals(commitIdentity.repositoryId) : commitIdentity.repositoryId != null) return false;
+        if (author != null ? !author.equals(commitIdentity.author) : commitIdentity.author != null) return false;
+        return comment != null ? comment.equals(commitIdentity.comment) : commitIdentity.comment == null;
+    }
+
+    public int hashCode()
+    {
+        int result = (repositoryId != null ? repositoryId.hashCode() : 0);
+        result = 29 * result + (author != null ? author.hashCode() : 0);
+        result = 29 * result + (int) (timeBucket ^ (timeBucket >>> 32));
+        result = 29 * result + (comment != null ? comment.hashCode() : 0);
+        return result;
+    }
+
+    public String toString()
+    {
+        return "repository=" + repositoryId + ",author=" + author + ",timeBucket=" + timeBucket + ",commentHash=" + (comment != null ? comment.hashCode() : 0);
+    }
+}
@@ -0,0 +1,76 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import net.sf.statcvs.input.CommitListBuilder;
+import net.sf.statcvs.model.Commit;
+import net.sf.statcvs.model.CvsRevision;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * The {@link CommitIdentity} of every parsed revision of a repository. The identities are assigned to the commits built
+ * from all revisions, so a commit built later from only some of its revisions (e.g. the ones matching a search) gets
+ * the same identity. The index is immutable and is rebuilt whenever the revisions of the repository change.
+ */
+public final class CommitIdentityIndex
+{
+    private final Map<CvsRevision, CommitIdentity> byRevision;
+    private final int commitCount;
+
+    /**
+     * @param repositoryId the id of the repository
+     * @param revisions    the revisions of the repository, in the order of their dates
+     */
+    public CommitIdentityIndex(Long repositoryId, SortedSet<CvsRevision> revisions)
+    {
+        // The revisions are the instances shared by all indexes of the content
+        this.byRevision = new IdentityHashMap<CvsRevision, CommitIdentity>(revisions.size());
+        int commits = 0;
+        if (!revisions.isEmpty())
+        {
+            @SuppressWarnings ({ "unchecked" }) final List<Commit> parsedCommits = new CommitListBuilder(revisions).createCommitList();
+            for (Commit commit : parsedCommits)
+            {
+                // The comment as stored, a placeholder if the comment text is stored outside of the heap
+                final CommitIdentity identity = new CommitIdentity(repositoryId, commit.getAuthor() == null ? null : commit.getAuthor().getName(), commit.getDate(), commit.getComment());
+                @SuppressWarnings ({ "unchecked" }) final Collection<CvsRevision> commitRevisions = commit.getRevisions();
+                for (CvsRevision revision : commitRevisions)
+                {
+                    byRevision.put(revision, identity);
+                }
+                commits++;
+            }
+        }
+        this.commitCount = commits;
+    }
+
+    /**
+     * @param commit a commit built from the revisions of the repository
+     * @return the identity of the commit, null if its revisions are not part of the indexed revisions
+     */
+    public CommitIdentity getIdentity(Commit commit)
+    {
+        @SuppressWarnings ({ "unchecked" }) final Iterator<CvsRevision> revisions = commit.getRevisions().iterator();
+        return revisions.hasNext() ? byRevision.get(revisions.next()) : null;
+    }
+
+    /**
+     * @return the number of indexed revisions
+     */
+    public int size()
+    {
+        return byRevision.size();
+    }
+
+    /**
+     * @return the number of distinct identities
+     */
+    public int getCommitCount()
+    {
+        return commitCount;
+    }
+}
@@ -0,0 +1,111 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import net.sf.statcvs.model.CvsFile;
+import net.sf.statcvs.model.CvsRevision;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Estimates the memory retained by the parsed content of a repository: the revisions and the files, comments and
+ * strings they reference, the revision sets and the indexes built over them, and the comments moved out of the heap.
+ * <p/>
+ * The sizes of the objects are those of a 64 bit JVM with compressed references. The estimate does not walk the object
+ * graph, so it is rough, but good enough to tell which repositories use the most memory and to keep the loaded contents
+ * within a budget.
+ */
+final class ContentSizeEstimator
+{
+    private static final long OBJECT_HEADER = 12;
+    private static final long ARRAY_HEADER = 16;
+    private static final long REFERENCE = 4;
+
+    // The revision with its revision number, date, line counts and symbolic names, without the referenced strings
+    private static final long REVISION = 64 + 24;
+    // An entry of a TreeSet: the parsed revisions, the merged revisions, the revisions of the file and of the branch
+    private static final long TREE_ENTRY = 40;
+    private static final long TREE_ENTRIES_PER_REVISION = 4;
+    // The date and the position of the revision in the index by author and in the index of all revisions
+    private static final long REVISION_INDEX_ENTRY = 2 * (8 + REFERENCE);
+    private static final long FILE = 64 + 48;
+    private static final long HASH_ENTRY = 36;
+    // The arrays of dates, authors and branches of the commits of an issue key
+    private static final long ISSUE_KEY_ENTRIES = 24 + 3 * ARRAY_HEADER;
+    private static final long ISSUE_KEY_COMMIT = 8 + 2 * REFERENCE;
+    // Offset, length and chunk of a comment moved out of the heap
+    private static final long STORED_COMMENT_ENTRY = 3 * 4;
+    // Key and value of an identity hash map slot, and the identity shared by the revisions of a commit
+    private static final long IDENTITY_ENTRY = 2 * REFERENCE;
+    private static final long COMMIT_IDENTITY = 40;
+
+    private ContentSizeEstimator()
+    {
+    }
+
+    /**
+     * @param revisions        the revisions of the content
+     * @param commentStore     the store holding the comments of the revisions, null if they are on the heap
+     * @param tokenIndex       the index of the words of the revisions
+     * @param issueCommitIndex the index of the commits by issue key
+     * @param identityIndex    the identities of the commits by revision
+     * @return the estimated size of the content in bytes
+     */
+    static long estimate(Collection<CvsRevision> revisions, CommentStore commentStore, TokenIndex tokenIndex, IssueCommitIndex issueCommitIndex, CommitIdentityIndex identityIndex)
+    {
+        long size = 0;
+        // Revisions of a commit share their comment and revisions of a file share the file, so they only count once
+        final Set<String> comments = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        final Set<CvsFile> files = Collections.newSetFromMap(new IdentityHashMap<CvsFile, Boolean>());
+        for (CvsRevision revision : revisions)
+        {
+            size += REVISION + TREE_ENTRIES_PER_REVISION * TREE_ENTRY + REVISION_INDEX_ENTRY + REFERENCE;
+            size += stringSize(revision.getRevisionNumber());
+            if (revision.getComment() != null && comments.add(revision.getComment()))
+            {
+                size += stringSize(revision.getComment());
+            }
+            if (files.add(revision.getFile()))
+            {
+                size += FILE + stringSize(revision.getFile().getFilenameWithPath());
+            }
+        }
+
+        if (commentStore != null)
+        {
+            size += commentStore.getStoredBytes() + commentStore.size() * STORED_COMMENT_ENTRY;
+        }
+        if (tokenIndex != null)
+        {
+            // Most tokens are short words
+            size += tokenIndex.size() * (stringSize(8) + HASH_ENTRY + ARRAY_HEADER) + tokenIndex.getPostingCount() * 4;
+        }
+        if (issueCommitIndex != null)
+        {
+            size += issueCommitIndex.size() * (stringSize(10) + HASH_ENTRY + ISSUE_KEY_ENTRIES) + issueCommitIndex.getCommitCount() * ISSUE_KEY_COMMIT;
+        }
+        if (identityIndex != null)
+        {
+            // The identities reference the author and comment strings of the revisions
+            size += identityIndex.size() * IDENTITY_ENTRY + identityIndex.getCommitCount() * COMMIT_IDENTITY;
+        }
+        return size;
+    }
+
+    private static long stringSize(String string)
+    {
+        return string == null ? 0 : stringSize(string.length());
+    }
+
+    private static long stringSize(int length)
+    {
+        // The String with its hash and its char array, each aligned to 8 bytes
+        return align(OBJECT_HEADER + REFERENCE + 4) + align(ARRAY_HEADER + 2L * length);
+    }
+
+    private static long align(long size)
+    {
+        return (size + 7) & ~7L;
+    }
+}
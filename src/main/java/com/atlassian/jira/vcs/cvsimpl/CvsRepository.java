@@ -20,6 +20,7 @@ import net.sf.statcvs.input.LogSyntaxException;
 import net.sf.statcvs.model.Commit;
 import net.sf.statcvs.model.CvsContent;
 import net.sf.statcvs.model.CvsRevision;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.log4j.Logger;
 import org.netbeans.lib.cvsclient.command.CommandException;
@@ -28,11 +29,25 @@ import org.netbeans.lib.cvsclient.connection.AuthenticationException;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class CvsRepository extends AbstractRepository
 {
@@ -71,11 +86,98 @@ public class CvsRepository extends AbstractRepository
      */
     private long cvsTimeout;
 
+    /**
+     * Whether only revisions referencing the projects associated with this repository are retained
+     */
+    private boolean projectScoped;
+
+    /**
+     * How much history is kept: blank to keep all of it, a number of years or a date (yyyy-MM-dd) to keep revisions
+     * committed since
+     */
+    private String retention;
+
+    /**
+     * The encoding the log is fetched and parsed with, blank for the default encoding of the JVM
+     */
+    private String encoding;
+
+    /**
+     * The charset of the encoding, resolved once when the encoding is set
+     */
+    private volatile Charset charset;
+
+    /**
+     * Whether the full history was requested, ignoring the retention until the repository is reconfigured
+     */
+    private volatile boolean fullHistory;
+
+    /**
+     * Whether the current content was parsed with all history, i.e. without a retention limit
+     */
+    private boolean parsedFullHistory = true;
+
+    /**
+     * The current and historical keys of the projects associated with this repository
+     * Only used when the repository is project scoped
+     */
+    private Set<String> projectKeys = Collections.emptySet();
+
+    /**
+     * The project keys the current content was parsed with, null if the content was parsed without project scope
+     */
+    private Set<String> parsedProjectKeys;
+
     /**
      * The parsed CVS commit information
      */
     private CvsContent content;
 
+    /**
+     * The revisions of the content together with the revisions parsed from the tail appended to the log since
+     */
+    private volatile SortedSet<CvsRevision> revisions;
+
+    /**
+     * Index of the revisions by author and date, rebuilt whenever the revisions change
+     */
+    private RevisionIndex revisionIndex;
+
+    /**
+     * Index of the words of the comments and file paths of the revisions, rebuilt whenever the revisions change
+     */
+    private TokenIndex tokenIndex;
+
+    /**
+     * Index of the commits of the content by referenced issue key, rebuilt whenever the revisions change
+     */
+    private IssueCommitIndex issueCommitIndex;
+
+    /**
+     * Revisions of the content by branch, rebuilt whenever the revisions change
+     */
+    private BranchIndex branchIndex;
+
+    /**
+     * Identities of the commits of the content by revision, rebuilt whenever the revisions change
+     */
+    private CommitIdentityIndex commitIdentityIndex;
+
+    /**
+     * Commit activity of the content by project key, updated with the revisions of every parse
+     */
+    private Map<String, CommitActivity> projectActivities = Collections.emptyMap();
+
+    /**
+     * The store holding the comments of the content, null if the comments are kept on the heap
+     */
+    private CommentStore commentStore;
+
+    /**
+     * Estimated memory retained by the content in bytes, computed whenever the revisions change
+     */
+    private volatile long estimatedContentSize;
+
     // Was used in JIRA 2.6
     public static final String KEY_BASEDIR = "cvsbasedir"; // Not used by anything except an upgrade task since JIRA 3.0
 
@@ -87,6 +189,24 @@ public class CvsRepository extends AbstractRepository
     public static final String KEY_PASSWORD = "cvspassword";
     public static final String KEY_FETCH_LOG = "cvsfetchlog";
     public static final String KEY_CVS_TIMEOUT = "cvstimeout";
+    public static final String KEY_PROJECT_SCOPED = "cvsprojectscoped";
+    public static final String KEY_RETENTION = "cvsretention";
+    public static final String KEY_ENCODING = "cvsencoding";
+
+    /**
+     * Before the encoding was stored with the repository, it was set by the system property made of this prefix, the
+     * name of the repository and {@link #LEGACY_ENCODING_PROPERTY_SUFFIX}. It is still used for repositories whose
+     * encoding was never saved.
+     */
+    public static final String LEGACY_ENCODING_PROPERTY_PREFIX = "jira.cvsrepository.";
+    public static final String LEGACY_ENCODING_PROPERTY_SUFFIX = ".encoding";
+
+    private static final String RETENTION_DATE_FORMAT = "yyyy-MM-dd";
+
+    /**
+     * System property that moves the text of commit comments out of the Java heap, see {@link CommentStore}
+     */
+    public static final String OFF_HEAP_COMMENTS_PROPERTY = "jira.cvs.comments.offheap";
 
     // not used yet
     // public static final String KEY_UPDATEDELAY = "cvsupdatedelay";
@@ -94,6 +214,34 @@ public class CvsRepository extends AbstractRepository
     // Used to write cv log when log file path is null
     private File tempFile;
 
+    /**
+     * The log file the current content was parsed from
+     */
+    private String parsedLogFilePath;
+
+    /**
+     * Modification time and length of the log file when it was last parsed
+     */
+    private long parsedLogLastModified;
+    private long parsedLogLength;
+
+    /**
+     * The position up to which the log was parsed, null if the log cannot be parsed incrementally
+     */
+    private LogPosition parsedLogPosition;
+
+    /**
+     * The generation of the shared snapshot the current content was loaded from, 0 if it was not loaded from a snapshot
+     */
+    private long snapshotGeneration;
+
+    /**
+     * Identifies the current content, changes every time a log is parsed. Seeded with the start time so that
+     * generations are not reused after a restart.
+     */
+    private static final AtomicLong CONTENT_GENERATIONS = new AtomicLong(System.currentTimeMillis());
+    private volatile long contentGeneration;
+
     private final CvsRepositoryUtil cvsRepositoryUtil;
 
     public CvsRepository(final PropertySet propertySet, CvsRepositoryUtil cvsRepositoryUtil)
@@ -107,6 +255,11 @@ public class CvsRepository extends AbstractRepository
         this.password = propertySet.getString(KEY_PASSWORD);
         this.fetchLog = Boolean.parseBoolean(propertySet.getString(KEY_FETCH_LOG));
         this.cvsTimeout = NumberUtils.toLong(propertySet.getString(KEY_CVS_TIMEOUT), CVS_OPERATION_TIMEOUT_DEFAULT);
+        this.projectScoped = Boolean.parseBoolean(propertySet.getString(KEY_PROJECT_SCOPED));
+        this.retention = propertySet.getString(KEY_RETENTION);
+        // Resolved once, so that renaming the repository does not change its encoding
+        final String storedEncoding = propertySet.getString(KEY_ENCODING);
+        setEncoding(StringUtils.isBlank(storedEncoding) ? getLegacyEncoding(getName()) : storedEncoding);
 
         // Check if this repository has the repository browser
         String repositoryBrowserType = propertySet.getString(Repository.KEY_REPOSITTORY_BROWSER_TYPE);
@@ -193,9 +346,329 @@ public class CvsRepository extends AbstractRepository
         this.fetchLog = fetchLog;
     }
 
+    public boolean isProjectScoped()
+    {
+        return projectScoped;
+    }
+
+    public void setProjectScoped(boolean projectScoped)
+    {
+        this.projectScoped = projectScoped;
+    }
+
+    public String getRetention()
+    {
+        return retention;
+    }
+
+    public void setRetention(String retention)
+    {
+        this.retention = retention;
+    }
+
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding)
+    {
+        this.encoding = StringUtils.trimToNull(encoding);
+        this.charset = getCharset(this.encoding);
+    }
+
+    /**
+     * @return the charset the log of this repository is fetched and parsed with
+     */
+    public Charset getCharset()
+    {
+        return charset;
+    }
+
+    /**
+     * Checks whether the given encoding is blank or supported by the JVM.
+     *
+     * @param encoding the encoding to check
+     * @return true if the encoding is valid
+     */
+    public static boolean isValidEncoding(String encoding)
+    {
+        if (StringUtils.isBlank(encoding))
+        {
+            return true;
+        }
+        try
+        {
+            return Charset.isSupported(encoding.trim());
+        }
+        catch (IllegalCharsetNameException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @param repositoryName the name of the repository
+     * @return the encoding set for the repository by the legacy system property, null if it is not set
+     */
+    public static String getLegacyEncoding(String repositoryName)
+    {
+        return repositoryName == null ? null : System.getProperty(LEGACY_ENCODING_PROPERTY_PREFIX + repositoryName + LEGACY_ENCODING_PROPERTY_SUFFIX);
+    }
+
+    /**
+     * @param encoding the encoding of a repository, may be blank
+     * @return the charset of the encoding, the default charset of the JVM if the encoding is blank or not supported
+     */
+    public static Charset getCharset(String encoding)
+    {
+        if (StringUtils.isBlank(encoding))
+        {
+            return Charset.defaultCharset();
+        }
+        if (isValidEncoding(encoding))
+        {
+            return Charset.forName(encoding.trim());
+        }
+        log.warn("Encoding '" + encoding + "' is not supported - using the default encoding " + Charset.defaultCharset().name() + ".");
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Returns the date from which revisions are kept according to the retention of this repository.
+     *
+     * @return the start of the retained history, null if all history is kept
+     */
+    public Date getRetentionStart()
+    {
+        return fullHistory ? null : getRetentionStart(retention, new Date());
+    }
+
+    /**
+     * Requests the full history of this repository to be loaded by the next update, regardless of the retention. The
+     * full history is kept until the repository is reconfigured or JIRA is restarted.
+     */
+    public void loadFullHistory()
+    {
+        this.fullHistory = true;
+    }
+
+    /**
+     * @return true if the full history was requested, see {@link #loadFullHistory()}
+     */
+    public boolean isFullHistory()
+    {
+        return fullHistory;
+    }
+
+    /**
+     * Checks whether the given retention is blank, a positive number of years or a date in the yyyy-MM-dd format.
+     *
+     * @param retention the retention to check
+     * @return true if the retention is valid
+     */
+    public static boolean isValidRetention(String retention)
+    {
+        if (StringUtils.isBlank(retention))
+        {
+            return true;
+        }
+        try
+        {
+            return getRetentionStart(retention, new Date()) != null;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @param retention the retention of a repository
+     * @param now       the current date
+     * @return the start of the retained history, null if all history is kept
+     * @throws IllegalArgumentException if the retention is not valid
+     */
+    static Date getRetentionStart(String retention, Date now)
+    {
+        if (StringUtils.isBlank(retention))
+        {
+            return null;
+        }
+
+        final String value = retention.trim();
+        if (StringUtils.isNumeric(value))
+        {
+            final int years = NumberUtils.toInt(value, 0);
+            if (years <= 0)
+            {
+                throw new IllegalArgumentException("Retention must be a positive number of years: " + retention);
+            }
+            final Calendar calendar = Calendar.getInstance();
+            calendar.setTime(now);
+            calendar.add(Calendar.YEAR, -years);
+            return calendar.getTime();
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat(RETENTION_DATE_FORMAT, Locale.US);
+        format.setLenient(false);
+        try
+        {
+            return format.parse(value);
+        }
+        catch (ParseException e)
+        {
+            throw new IllegalArgumentException("Retention must be a number of years or a date (" + RETENTION_DATE_FORMAT + "): " + retention);
+        }
+    }
+
+    /**
+     * Sets the keys of the projects associated with this repository. These are only used to filter the parsed
+     * revisions if the repository is project scoped.
+     *
+     * @param projectKeys current and historical keys of the associated projects
+     * @return true if the repository is project scoped and its content was parsed with different project keys
+     */
+    public synchronized boolean setProjectKeys(Set<String> projectKeys)
+    {
+        this.projectKeys = projectKeys == null ? Collections.<String>emptySet() : new HashSet<String>(projectKeys);
+        return projectScoped && content != null && !this.projectKeys.equals(parsedProjectKeys);
+    }
+
     private void parseCvsLogs(String filename) throws IOException, LogSyntaxException, LockException
     {
-        this.content = cvsRepositoryUtil.parseCvsLogs(new File(filename), moduleName, cvsRepositoryUtil.parseCvsRoot(cvsRoot).getRepository(), getName());
+        // Taken before parsing so that a change made while parsing is picked up by the next update
+        final File logFile = new File(filename);
+        final long lastModified = logFile.lastModified();
+        final long length = logFile.length();
+
+        final CommentStore parsedCommentStore = Boolean.getBoolean(OFF_HEAP_COMMENTS_PROPERTY) ? new CommentStore() : null;
+        final Date retentionStart = getRetentionStart();
+        final JiraRevisionFilter revisionFilter = new JiraRevisionFilter(projectScoped ? projectKeys : null, parsedCommentStore, retentionStart);
+        this.content = cvsRepositoryUtil.parseCvsLogs(new File(filename), moduleName, cvsRepositoryUtil.parseCvsRoot(cvsRoot).getRepository(), charset, revisionFilter);
+        if (parsedCommentStore != null)
+        {
+            parsedCommentStore.seal();
+        }
+        this.commentStore = parsedCommentStore;
+        this.parsedProjectKeys = revisionFilter.getProjectKeys();
+        this.parsedFullHistory = retentionStart == null;
+        this.parsedLogFilePath = filename;
+        this.parsedLogLastModified = lastModified;
+        this.parsedLogLength = length;
+        this.parsedLogPosition = cvsRepositoryUtil.getLogPosition(logFile, length);
+        @SuppressWarnings ({ "unchecked" }) final SortedSet<CvsRevision> parsedRevisions = content.getRevisions();
+        this.revisionIndex = new RevisionIndex(parsedRevisions);
+        this.tokenIndex = new TokenIndex(parsedRevisions, parsedCommentStore);
+        this.issueCommitIndex = new IssueCommitIndex(parsedRevisions);
+        this.branchIndex = new BranchIndex(parsedRevisions);
+        this.commitIdentityIndex = new CommitIdentityIndex(getId(), parsedRevisions);
+        this.projectActivities = CommitActivity.byProjectKey(parsedRevisions);
+        this.estimatedContentSize = ContentSizeEstimator.estimate(parsedRevisions, parsedCommentStore, tokenIndex, issueCommitIndex, commitIdentityIndex);
+        this.revisions = parsedRevisions;
+        this.contentGeneration = CONTENT_GENERATIONS.incrementAndGet();
+    }
+
+    /**
+     * Checks whether the log was only appended to since it was last parsed, i.e. the block before the parsed position
+     * is unchanged and the log has grown. The log must have been parsed with the current settings.
+     *
+     * @param filename the log file
+     * @return true if only the appended tail of the log needs to be parsed
+     */
+    private boolean isTailParseable(String filename) throws IOException
+    {
+        if (fetchLog || revisions == null || parsedLogPosition == null || !filename.equals(parsedLogFilePath))
+        {
+            return false;
+        }
+        final Set<String> scopeKeys = projectScoped ? projectKeys : null;
+        if (scopeKeys == null ? parsedProjectKeys != null : !scopeKeys.equals(parsedProjectKeys))
+        {
+            return false;
+        }
+        if (Boolean.getBoolean(OFF_HEAP_COMMENTS_PROPERTY) != (commentStore != null))
+        {
+            return false;
+        }
+        if (parsedFullHistory != (getRetentionStart() == null))
+        {
+            return false;
+        }
+
+        final File logFile = new File(filename);
+        return logFile.length() > parsedLogPosition.getOffset()
+               && parsedLogPosition.equals(cvsRepositoryUtil.getLogPosition(logFile, parsedLogPosition.getOffset()));
+    }
+
+    /**
+     * Parses the tail appended to the log since it was last parsed and merges its revisions into the content.
+     *
+     * @param filename the log file
+     * @return true if the tail was parsed, false if the whole log needs to be parsed instead
+     */
+    private boolean parseCvsLogTail(String filename) throws IOException, LockException
+    {
+        final File logFile = new File(filename);
+        final long lastModified = logFile.lastModified();
+        final long length = logFile.length();
+        final LogPosition position = cvsRepositoryUtil.getLogPosition(logFile, length);
+        if (position == null)
+        {
+            return false;
+        }
+
+        // Revisions that have aged out since the whole log was parsed are only dropped by the next full parse
+        final JiraRevisionFilter revisionFilter = new JiraRevisionFilter(parsedProjectKeys, commentStore, getRetentionStart());
+        final CvsContent tail;
+        try
+        {
+            tail = cvsRepositoryUtil.parseCvsLogs(logFile, parsedLogPosition.getOffset(), moduleName, cvsRepositoryUtil.parseCvsRoot(cvsRoot).getRepository(), charset, revisionFilter);
+        }
+        catch (LogSyntaxException e)
+        {
+            log.warn("Could not parse the tail of log '" + filename + "' of repository '" + getName() + "' - parsing the whole log: " + e.getMessage());
+            return false;
+        }
+        finally
+        {
+            if (commentStore != null)
+            {
+                commentStore.seal();
+            }
+        }
+
+        // Revisions that are in both parts (e.g. overlapping rlog -d runs) compare equal and are only kept once
+        final SortedSet<CvsRevision> mergedRevisions = new TreeSet<CvsRevision>(revisions);
+        @SuppressWarnings ({ "unchecked" }) final SortedSet<CvsRevision> tailRevisions = tail.getRevisions();
+        final SortedSet<CvsRevision> addedRevisions = new TreeSet<CvsRevision>();
+        for (CvsRevision revision : tailRevisions)
+        {
+            if (mergedRevisions.add(revision))
+            {
+                addedRevisions.add(revision);
+            }
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Parsed " + (length - parsedLogPosition.getOffset()) + " appended bytes of log '" + filename + "' with " + tailRevisions.size() + " relevant revisions.");
+        }
+
+        this.revisionIndex = new RevisionIndex(mergedRevisions);
+        this.tokenIndex = new TokenIndex(mergedRevisions, commentStore);
+        this.issueCommitIndex = new IssueCommitIndex(mergedRevisions);
+        this.branchIndex = new BranchIndex(mergedRevisions);
+        this.commitIdentityIndex = new CommitIdentityIndex(getId(), mergedRevisions);
+        // Only the activity of the appended revisions is computed, and added to the activity computed before
+        this.projectActivities = CommitActivity.merge(projectActivities, CommitActivity.byProjectKey(addedRevisions));
+        this.estimatedContentSize = ContentSizeEstimator.estimate(mergedRevisions, commentStore, tokenIndex, issueCommitIndex, commitIdentityIndex);
+        this.revisions = mergedRevisions;
+        this.parsedLogLastModified = lastModified;
+        this.parsedLogLength = length;
+        this.parsedLogPosition = position;
+        this.contentGeneration = CONTENT_GENERATIONS.incrementAndGet();
+        return true;
     }
 
     /**
@@ -211,41 +684,226 @@ public class CvsRepository extends AbstractRepository
     {
         if (fetchLog)
         {
-            // Test for null path. If path is null then use a temporary file
-            final File outputFile;
-            if (cvsLogFilePath == null || cvsLogFilePath.length() <= 0)
-            {
-                // See if we already have a temporary file to use.
-                if (tempFile == null)
-                {
-                    // If not, create one and 'remember' it for future use
-                    log.debug("No temp file found - creating one");
-                    outputFile = java.io.File.createTempFile("cvs-", ".log");
-                    outputFile.deleteOnExit();
-                    tempFile = outputFile;
-                }
-                else
-                {
-                    // If so use it, to prevent generating a lot of temporary files
-                    log.debug("Found a temp file to use.");
-                    outputFile = tempFile;
-                }
+            final File outputFile = getOutputFile();
+            // Revisions older than the retention are not fetched at all
+            cvsRepositoryUtil.updateCvs(outputFile, cvsRoot, moduleName, password, cvsTimeout, getRetentionStart(), charset);
+            return outputFile.getAbsolutePath();
+        }
+        else
+        {
+            log.debug("Not fetching log as the option is disabled.");
+            return cvsLogFilePath;
+        }
+    }
 
-                log.info("Repository has no log file path set - using temporary file '" + outputFile.getAbsolutePath() + "'.");
+    /**
+     * Returns the file the fetched log is written to.
+     *
+     * @return the file the fetched log is written to
+     * @throws IOException if cannot create temporary file
+     */
+    private File getOutputFile() throws IOException
+    {
+        // Test for null path. If path is null then use a temporary file
+        final File outputFile;
+        if (cvsLogFilePath == null || cvsLogFilePath.length() <= 0)
+        {
+            // See if we already have a temporary file to use.
+            if (tempFile == null)
+            {
+                // If not, create one and 'remember' it for future use
+                log.debug("No temp file found - creating one");
+                outputFile = java.io.File.createTempFile("cvs-", ".log");
+                outputFile.deleteOnExit();
+                tempFile = outputFile;
             }
             else
             {
-                outputFile = new File(cvsLogFilePath);
+                // If so use it, to prevent generating a lot of temporary files
+                log.debug("Found a temp file to use.");
+                outputFile = tempFile;
             }
 
-            cvsRepositoryUtil.updateCvs(outputFile, cvsRoot, moduleName, password, cvsTimeout);
-            return outputFile.getAbsolutePath();
+            log.info("Repository has no log file path set - using temporary file '" + outputFile.getAbsolutePath() + "'.");
         }
         else
         {
-            log.debug("Not fetching log as the option is disabled.");
-            return cvsLogFilePath;
+            outputFile = new File(cvsLogFilePath);
+        }
+        return outputFile;
+    }
+
+    /**
+     * Replaces the content of this repository with a snapshot published by another cluster node. The snapshot is
+     * copied to the log file of this repository and parsed.
+     *
+     * @param snapshot   the published log
+     * @param generation the generation of the published log
+     * @throws IOException        if cannot copy the snapshot
+     * @throws LockException      if cannot obtain the lock on the log file
+     * @throws LogSyntaxException if the snapshot cannot be parsed
+     */
+    public synchronized void loadSnapshot(File snapshot, long generation) throws IOException, LockException, LogSyntaxException
+    {
+        final File outputFile = getOutputFile();
+        cvsRepositoryUtil.importLog(snapshot, outputFile);
+        parseCvsLogs(outputFile.getAbsolutePath());
+        this.snapshotGeneration = generation;
+    }
+
+    /**
+     * Copies a snapshot published by another cluster node to the log file of this repository without parsing it, so
+     * that the content can be loaded from it when it is needed.
+     *
+     * @param snapshot   the published log
+     * @param generation the generation of the published log
+     * @throws IOException   if cannot copy the snapshot
+     * @throws LockException if cannot obtain the lock on the log file
+     */
+    public synchronized void importSnapshot(File snapshot, long generation) throws IOException, LockException
+    {
+        cvsRepositoryUtil.importLog(snapshot, getOutputFile());
+        this.snapshotGeneration = generation;
+    }
+
+    /**
+     * Parses the log the current content was parsed from again, e.g. because the project scope or the project keys it
+     * was filtered with have changed. The log is not fetched, and the generation of the snapshot it was copied from is
+     * kept.
+     *
+     * @return true if the log was parsed, false if no log has been parsed yet
+     * @throws IOException        if cannot read the log
+     * @throws LockException      if cannot obtain the lock on the log file
+     * @throws LogSyntaxException if the log cannot be parsed
+     */
+    public synchronized boolean reparseContent() throws IOException, LockException, LogSyntaxException
+    {
+        if (parsedLogFilePath == null || !new File(parsedLogFilePath).exists())
+        {
+            return false;
+        }
+        parseCvsLogs(parsedLogFilePath);
+        return true;
+    }
+
+    /**
+     * @return true if the content of this repository is in memory
+     */
+    public boolean isContentLoaded()
+    {
+        return revisions != null;
+    }
+
+    /**
+     * Loads the content of this repository from the log it was last parsed from, or else from the log fetched or
+     * maintained for it, without contacting the CVS server.
+     *
+     * @return true if the content was loaded, false if it was loaded already or there is no log to load it from yet
+     * @throws IOException        if cannot read the log
+     * @throws LockException      if cannot obtain the lock on the log file
+     * @throws LogSyntaxException if the log cannot be parsed
+     */
+    public synchronized boolean loadContent() throws IOException, LockException, LogSyntaxException
+    {
+        if (revisions != null)
+        {
+            return false;
+        }
+
+        final String logFilePath;
+        if (parsedLogFilePath != null)
+        {
+            logFilePath = parsedLogFilePath;
+        }
+        else if (fetchLog && StringUtils.isBlank(cvsLogFilePath))
+        {
+            logFilePath = tempFile == null ? null : tempFile.getAbsolutePath();
+        }
+        else
+        {
+            logFilePath = cvsLogFilePath;
+        }
+        // The log is not there until it has been fetched for the first time
+        if (logFilePath == null || new File(logFilePath).length() == 0)
+        {
+            return false;
+        }
+
+        parseCvsLogs(logFilePath);
+        return true;
+    }
+
+    /**
+     * Drops the content of this repository from memory. It can be loaded again with {@link #loadContent()}. The
+     * content generation is kept, as the content loaded again from the same log is the same.
+     */
+    public synchronized void unloadContent()
+    {
+        this.content = null;
+        this.revisions = null;
+        this.revisionIndex = null;
+        this.tokenIndex = null;
+        this.issueCommitIndex = null;
+        this.branchIndex = null;
+        this.commitIdentityIndex = null;
+        this.projectActivities = Collections.emptyMap();
+        this.commentStore = null;
+        this.parsedLogPosition = null;
+        this.estimatedContentSize = 0;
+    }
+
+    /**
+     * @return an estimate of the memory retained by the content of this repository in bytes, including the comments
+     *         stored outside of the heap, 0 if it is not loaded
+     */
+    public long getEstimatedContentSize()
+    {
+        return estimatedContentSize;
+    }
+
+    public long getSnapshotGeneration()
+    {
+        return snapshotGeneration;
+    }
+
+    /**
+     * Returns the generation of the parsed content. The generation changes whenever the content may have changed, so
+     * it can be used to tell whether results computed from the content are still current.
+     *
+     * @return the generation of the content, 0 if the log has not been parsed yet
+     */
+    public long getContentGeneration()
+    {
+        return contentGeneration;
+    }
+
+    /**
+     * Returns the log file the current content was parsed from.
+     *
+     * @return the log file, null if the log has not been parsed yet
+     */
+    public File getParsedLogFile()
+    {
+        return parsedLogFilePath == null ? null : new File(parsedLogFilePath);
+    }
+
+    /**
+     * Checks whether the content was parsed from the configured log file and the file has not changed since.
+     *
+     * @return true if parsing the log file again would give the same content
+     */
+    public boolean isParsedLogCurrent()
+    {
+        if (parsedLogFilePath == null || revisions == null || fetchLog || !parsedLogFilePath.equals(cvsLogFilePath))
+        {
+            return false;
+        }
+        if (parsedFullHistory != (getRetentionStart() == null))
+        {
+            return false;
         }
+        final File logFile = new File(parsedLogFilePath);
+        return logFile.lastModified() == parsedLogLastModified && logFile.length() == parsedLogLength;
     }
 
     /**
@@ -254,44 +912,195 @@ public class CvsRepository extends AbstractRepository
      * @param issueKey issue key
      */
     public List<Commit> getCommitsForIssue(final String issueKey) throws RepositoryException
+    {
+        return getCommitsForIssue(issueKey, null);
+    }
+
+    /**
+     * Return a list of {@link Commit} objects made on the given branch. Only the revisions of the branch are matched.
+     *
+     * @param issueKey issue key
+     * @param branch   the name of the branch, or null for all branches
+     */
+    public List<Commit> getCommitsForIssue(final String issueKey, String branch) throws RepositoryException
+    {
+        final IssueCommitMatch match = matchCommits(issueKey, branch, Long.MAX_VALUE);
+        return match == null ? null : match.getCommits();
+    }
+
+    /**
+     * Matches the commits of the given issue until the given deadline. If the deadline passes, matching stops and the
+     * commits found in the revisions scanned so far, which are the oldest ones, are returned as an incomplete match.
+     *
+     * @param issueKey issue key
+     * @param branch   the name of the branch, or null for all branches
+     * @param deadline the time (in milliseconds since the epoch) to stop matching at
+     * @return the matched commits, null if the log has not been parsed yet
+     */
+    public IssueCommitMatch matchCommits(final String issueKey, String branch, long deadline)
     {
         log.debug("Starting commit matching.");
         long t0 = System.currentTimeMillis();
         // We should always let the VcsService update the cvs logs, doing it synchronously here can lock
         // up the UI, JRA-8857
-        if (content == null)
+        final SortedSet<CvsRevision> currentRevisions;
+        if (branch == null)
         {
-            return null;
+            currentRevisions = revisions;
         }
-
-        CommitListBuilder commitListBuilder = new CommitListBuilder(content.getRevisions())
+        else
         {
-            protected void processRevision(CvsRevision rev)
-            {
-                // Check if the key can be found in the commit message
-                if (JiraKeyUtils.isKeyInString(issueKey, rev.getComment()))
-                {
-                    super.processRevision(rev);
-                }
-            }
-        };
+            final BranchIndex index = branchIndex;
+            currentRevisions = index == null ? null : index.getRevisions(branch);
+        }
+        if (currentRevisions == null)
+        {
+            return null;
+        }
 
+        final IssueKeyCommitListBuilder commitListBuilder = new IssueKeyCommitListBuilder(currentRevisions, issueKey, deadline);
         @SuppressWarnings ({ "unchecked" }) List<Commit> matchingCommits = commitListBuilder.createCommitList();
         List<Commit> cvsCommits = new ArrayList<Commit>(matchingCommits);
 
         if (log.isDebugEnabled())
         {
-            log.debug("Finished commit matching.");
+            log.debug("Finished commit matching" + (commitListBuilder.expired ? " at the deadline." : "."));
             log.debug("Matching took " + (System.currentTimeMillis() - t0) + "ms and matched " + cvsCommits.size() + " commits.");
         }
 
-        return cvsCommits;
+        return new IssueCommitMatch(cvsCommits, !commitListBuilder.expired);
+    }
+
+    /**
+     * Returns the commits made by the given author in the given period, using the author and date index of the
+     * content instead of scanning all revisions.
+     *
+     * @param author the CVS login of the author, or null for all authors
+     * @param from   the start of the period (inclusive), or null for no lower bound
+     * @param to     the end of the period (exclusive), or null for no upper bound
+     * @return the commits sorted by date, null if the log has not been parsed yet
+     */
+    public List<Commit> getCommitsByAuthor(String author, Date from, Date to)
+    {
+        final RevisionIndex index = revisionIndex;
+        if (index == null)
+        {
+            return null;
+        }
+
+        final SortedSet<CvsRevision> authorRevisions = index.getRevisions(author, from, to);
+        if (authorRevisions.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        @SuppressWarnings ({ "unchecked" }) final List<Commit> commits = new CommitListBuilder(authorRevisions).createCommitList();
+        return new ArrayList<Commit>(commits);
+    }
+
+    /**
+     * Returns the commits whose comment or file paths contain all words of the query, using the token index of the
+     * content. Only the revisions of a commit that match are part of the returned commit.
+     *
+     * @param query the words to search for
+     * @return the matching commits sorted by date, null if the log has not been parsed yet
+     */
+    public List<Commit> searchCommits(String query)
+    {
+        final TokenIndex index = tokenIndex;
+        if (index == null)
+        {
+            return null;
+        }
+
+        final SortedSet<CvsRevision> matchingRevisions = index.search(query);
+        if (matchingRevisions.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        @SuppressWarnings ({ "unchecked" }) final List<Commit> commits = new CommitListBuilder(matchingRevisions).createCommitList();
+        return new ArrayList<Commit>(commits);
+    }
+
+    /**
+     * Returns the keys of the issues referenced by a commit matching the given filters, using the issue key index of
+     * the content.
+     *
+     * @param from   the earliest commit date (inclusive), or null for no lower bound
+     * @param author the CVS login of the author, or null for all authors
+     * @param branch the name of the branch, or null for all branches
+     * @return the issue keys, null if the log has not been parsed yet
+     */
+    public Set<String> getCommittedIssueKeys(Date from, String author, String branch)
+    {
+        final IssueCommitIndex index = issueCommitIndex;
+        return index == null ? null : index.getIssueKeys(from, author, branch);
+    }
+
+    /**
+     * @return the names of the branches commits were made on, sorted, null if the log has not been parsed yet
+     */
+    public Set<String> getBranchNames()
+    {
+        final BranchIndex index = branchIndex;
+        return index == null ? null : index.getBranchNames();
+    }
+
+    /**
+     * Returns the identity assigned to a commit when the log was parsed.
+     *
+     * @param commit a commit built from the revisions of this repository's content
+     * @return the identity of the commit, null if the log has not been parsed yet or the commit is not part of the
+     *         current content
+     */
+    public CommitIdentity getCommitIdentity(Commit commit)
+    {
+        final CommitIdentityIndex index = commitIdentityIndex;
+        return index == null ? null : index.getIdentity(commit);
+    }
+
+    /**
+     * Returns the commit activity of the content for the given projects.
+     *
+     * @param projectKeys the current and historical keys of the projects
+     * @return the activity, empty if the log has not been parsed yet
+     */
+    public CommitActivity getCommitActivity(Collection<String> projectKeys)
+    {
+        final Map<String, CommitActivity> activities = projectActivities;
+        CommitActivity activity = CommitActivity.EMPTY;
+        for (String projectKey : projectKeys)
+        {
+            final CommitActivity projectActivity = activities.get(projectKey);
+            if (projectActivity != null)
+            {
+                activity = activity == CommitActivity.EMPTY ? projectActivity : activity.merge(projectActivity);
+            }
+        }
+        return activity;
+    }
+
+    /**
+     * Returns the text of a comment of this repository's content. Comments are only decoded here if they are stored
+     * outside of the heap.
+     *
+     * @param comment comment as returned by the parsed revisions and commits
+     * @return the text of the comment
+     */
+    public String resolveComment(String comment)
+    {
+        final CommentStore store = commentStore;
+        return store == null ? comment : store.resolve(comment);
     }
 
     public synchronized void updateRepository() throws CommandException, AuthenticationException, IOException, LockException, LogSyntaxException
     {
         final String cvsLog = updateCvs();
-        parseCvsLogs(cvsLog);
+        // Logs that are only appended to by an external process do not need to be parsed from the start every time
+        if (!isTailParseable(cvsLog) || !parseCvsLogTail(cvsLog))
+        {
+            parseCvsLogs(cvsLog);
+        }
+        this.snapshotGeneration = 0;
     }
 
     public String getType()
@@ -301,7 +1110,7 @@ public class CvsRepository extends AbstractRepository
 
     public String toString()
     {
-        return super.toString() + ",cvsLogFilePath=" + cvsLogFilePath + ",cvsRoot=" + cvsRoot + ",moduleName=" + moduleName + ",password=" + password + ", fetchLog=" + fetchLog;
+        return super.toString() + ",cvsLogFilePath=" + cvsLogFilePath + ",cvsRoot=" + cvsRoot + ",moduleName=" + moduleName + ",password=" + password + ", fetchLog=" + fetchLog + ", projectScoped=" + projectScoped + ", retention=" + retention + ", encoding=" + encoding;
     }
 
     public boolean equals(Object o)
@@ -313,6 +1122,9 @@ public class CvsRepository extends AbstractRepository
         final CvsRepository cvsRepository = (CvsRepository) o;
 
         if (fetchLog != cvsRepository.fetchLog) return false;
+        if (projectScoped != cvsRepository.projectScoped) return false;
+        if (retention != null ? !retention.equals(cvsRepository.retention) : cvsRepository.retention != null) return false;
+        if (encoding != null ? !encoding.equals(cvsRepository.encoding) : cvsRepository.encoding != null) return false;
         if (cvsLogFilePath != null ? !cvsLogFilePath.equals(cvsRepository.cvsLogFilePath) : cvsRepository.cvsLogFilePath != null) return false;
         if (cvsRoot != null ? !cvsRoot.equals(cvsRepository.cvsRoot) : cvsRepository.cvsRoot != null) return false;
         if (moduleName != null ? !moduleName.equals(cvsRepository.moduleName) : cvsRepository.moduleName != null) return false;
@@ -329,6 +1141,9 @@ public class CvsRepository extends AbstractRepository
         result = 29 * result + (moduleName != null ? moduleName.hashCode() : 0);
         result = 29 * result + (password != null ? password.hashCode() : 0);
         result = 29 * result + (fetchLog ? 1 : 0);
+        result = 29 * result + (projectScoped ? 1 : 0);
+        result = 29 * result + (retention != null ? retention.hashCode() : 0);
+        result = 29 * result + (encoding != null ? encoding.hashCode() : 0);
         return result;
     }
 
@@ -342,7 +1157,25 @@ public class CvsRepository extends AbstractRepository
     {
         if (repository instanceof CvsRepository)
         {
-            this.content = ((CvsRepository) repository).content;
+            final CvsRepository cvsRepository = (CvsRepository) repository;
+            this.content = cvsRepository.content;
+            this.revisions = cvsRepository.revisions;
+            this.revisionIndex = cvsRepository.revisionIndex;
+            this.tokenIndex = cvsRepository.tokenIndex;
+            this.issueCommitIndex = cvsRepository.issueCommitIndex;
+            this.branchIndex = cvsRepository.branchIndex;
+            this.commitIdentityIndex = cvsRepository.commitIdentityIndex;
+            this.projectActivities = cvsRepository.projectActivities;
+            this.parsedLogPosition = cvsRepository.parsedLogPosition;
+            this.commentStore = cvsRepository.commentStore;
+            this.estimatedContentSize = cvsRepository.estimatedContentSize;
+            this.parsedProjectKeys = cvsRepository.parsedProjectKeys;
+            this.parsedFullHistory = cvsRepository.parsedFullHistory;
+            this.parsedLogFilePath = cvsRepository.parsedLogFilePath;
+            this.parsedLogLastModified = cvsRepository.parsedLogLastModified;
+            this.parsedLogLength = cvsRepository.parsedLogLength;
+            this.snapshotGeneration = cvsRepository.snapshotGeneration;
+            this.contentGeneration = cvsRepository.contentGeneration;
         }
     }
 
@@ -355,4 +1188,43 @@ public class CvsRepository extends AbstractRepository
     {
         return content;
     }
+
+    /**
+     * Builds the commits of the revisions whose comment contains an issue key, until a deadline
+     */
+    private static class IssueKeyCommitListBuilder extends CommitListBuilder
+    {
+        // Reading the clock for every revision would slow down matching
+        private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+        private final String issueKey;
+        private final long deadline;
+        private int processed;
+        private boolean expired;
+
+        private IssueKeyCommitListBuilder(SortedSet<CvsRevision> revisions, String issueKey, long deadline)
+        {
+            super(revisions);
+            this.issueKey = issueKey;
+            this.deadline = deadline;
+        }
+
+        protected void processRevision(CvsRevision rev)
+        {
+            if (expired)
+            {
+                return;
+            }
+            if (++processed % DEADLINE_CHECK_INTERVAL == 0 && System.currentTimeMillis() > deadline)
+            {
+                expired = true;
+                return;
+            }
+            // Check if the key can be found in the commit message
+            if (JiraKeyUtils.isKeyInString(issueKey, rev.getComment()))
+            {
+                super.processRevision(rev);
+            }
+        }
+    }
 }
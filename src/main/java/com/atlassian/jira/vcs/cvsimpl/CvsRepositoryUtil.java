@@ -17,11 +17,86 @@ import org.netbeans.lib.cvsclient.connection.Connection;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Date;
 public interface CvsRepositoryUtil
 {
-    public CvsContent parseCvsLogs(File logFile, String moduleName, String repositoryPath, String repositoryName) throws IOException, LogSyntaxException, LockException;
+    /**
+     * Parses the commit information from the cvs log.
+     *
+     * @param charset the charset the log is written in
+     */
+    public CvsContent parseCvsLogs(File logFile, String moduleName, String repositoryPath, Charset charset) throws IOException, LogSyntaxException, LockException;
+
+    /**
+     * Parses the commit information from the cvs log, retaining only the revisions accepted by the given filter.
+     *
+     * @param charset        the charset the log is written in
+     * @param revisionFilter the filter deciding which revisions are retained
+     */
+    public CvsContent parseCvsLogs(File logFile, String moduleName, String repositoryPath, Charset charset, JiraRevisionFilter revisionFilter) throws IOException, LogSyntaxException, LockException;
+
+    /**
+     * Parses the commit information from the part of a plain text cvs log starting at the given offset, retaining
+     * only the revisions accepted by the given filter. The offset must be at the start of a file entry of the log.
+     *
+     * @param offset         the byte offset to start parsing at
+     * @param charset        the charset the log is written in
+     * @param revisionFilter the filter deciding which revisions are retained
+     */
+    public CvsContent parseCvsLogs(File logFile, long offset, String moduleName, String repositoryPath, Charset charset, JiraRevisionFilter revisionFilter) throws IOException, LogSyntaxException, LockException;
+
+    /**
+     * Returns the position at the given offset of the cvs log, with the checksum of the block before it.
+     *
+     * @param logFile the file containing cvs log
+     * @param offset  the byte offset
+     * @return the position, null if the log is compressed or shorter than the offset
+     */
+    public LogPosition getLogPosition(File logFile, long offset) throws IOException;
+
+    /**
+     * Fetches the cvs log of the module into the given file
+     *
+     * @param charset the charset the log is written in
+     */
+    public void updateCvs(File logFile, String cvsRoot, String moduleName, String password, long cvsTimeout, Charset charset) throws AuthenticationException, CommandException, IOException, LockException;
 
-    public void updateCvs(File logFile, String cvsRoot, String moduleName, String password, long cvsTimeout) throws AuthenticationException, CommandException, IOException, LockException;
+    /**
+     * Fetches the cvs log of the module into the given file, limited to the revisions committed since the given date
+     *
+     * @param since   the date from which revisions are fetched, null to fetch all history
+     * @param charset the charset the log is written in
+     */
+    public void updateCvs(File logFile, String cvsRoot, String moduleName, String password, long cvsTimeout, Date since, Charset charset) throws AuthenticationException, CommandException, IOException, LockException;
+
+    /**
+     * Replaces the given cvs log with a copy of a log fetched elsewhere (e.g. by another cluster node)
+     *
+     * @param source  the log to copy
+     * @param logFile the file where the cvs log will be written
+     */
+    public void importLog(File source, File logFile) throws IOException, LockException;
+
+    /**
+     * Checks that a module can be used without fetching its whole log: authenticates with the server and fetches a
+     * bounded sample of the recent log of the module. Only complete file entries are written to the sample, so it can
+     * be parsed.
+     *
+     * @param sampleFile the file the sample is written to
+     * @param maxLines   the maximum number of lines of the log to read
+     * @param charset    the charset the sample is written in
+     * @return the number of file entries in the sample
+     */
+    public int probeCvs(File sampleFile, String cvsRoot, String moduleName, String password, long cvsTimeout, int maxLines, Charset charset) throws AuthenticationException, CommandException, IOException;
+
+    /**
+     * Checks whether the given cvs log is currently being written, i.e. its write lock is held
+     *
+     * @param logFile the cvs log
+     * @return true if the write lock of the log exists
+     */
+    public boolean isLogLocked(File logFile);
 
     /**
      * Creates a connection to a CVS Repository given a CVS root
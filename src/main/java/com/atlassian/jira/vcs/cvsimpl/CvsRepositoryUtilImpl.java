@@ -15,6 +15,9 @@ import net.sf.statcvs.input.LogSyntaxException;
 import net.sf.statcvs.input.RepositoryFileManager;
 import net.sf.statcvs.model.CvsContent;
 import net.sf.statcvs.util.CvsLogUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.netbeans.lib.cvsclient.CVSRoot;
 import org.netbeans.lib.cvsclient.Client;
@@ -28,19 +31,26 @@ import org.netbeans.lib.cvsclient.connection.AuthenticationException;
 import org.netbeans.lib.cvsclient.connection.Connection;
 import org.netbeans.lib.cvsclient.connection.ConnectionFactory;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
 import java.util.Collection;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -48,6 +58,12 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
 {
@@ -56,8 +72,29 @@ public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
     private static final String LOCK_FILE_NAME_SUFFIX = ".write.lock";
     private static final int LOCK_OBTAIN_TIMEOUT = 10000; // 10 seconds
     private static final String LINE_SEPARATOR = System.getProperty("line.separator");
-    private static final String KEY_CVS_REPOSITORY_ENCODING_PREFIX = "jira.cvsrepository.";
-    private static final String KEY_CVS_REPOSITORY_POSTFIX = ".encoding";
+
+    /**
+     * System property selecting how fetched logs are stored on disk: {@link #LOG_COMPRESSION_GZIP},
+     * {@link #LOG_COMPRESSION_FAST} or not set for plain text. Logs are always read regardless of the setting.
+     */
+    public static final String LOG_COMPRESSION_PROPERTY = "jira.cvs.log.compression";
+    public static final String LOG_COMPRESSION_GZIP = "gzip";
+    // gzip format with the fastest deflate level, trades some disk space for less CPU while fetching
+    public static final String LOG_COMPRESSION_FAST = "fast";
+    private static final int LOG_BUFFER_SIZE = 64 * 1024;
+    // Lines of fetched logs are encoded into a direct buffer of this size before they are written
+    private static final int LOG_WRITE_BUFFER_SIZE = 1024 * 1024;
+    /**
+     * System property that forces fetched logs to the storage device once they are written, so that a log survives a
+     * crash of the machine right after it was fetched
+     */
+    public static final String LOG_FORCE_PROPERTY = "jira.cvs.log.force";
+    private static final int GZIP_MAGIC_FIRST_BYTE = 0x1f;
+    private static final int GZIP_MAGIC_SECOND_BYTE = 0x8b;
+    // Line closing the entry of a file in the rlog output
+    private static final String FILE_ENTRY_SEPARATOR = "=============";
+    // How far back the probe samples the log
+    private static final long PROBE_PERIOD = 90L * 24 * 60 * 60 * 1000;
 
     /**
      * Checks for the validity of the given CVS log file
@@ -128,21 +165,64 @@ public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
      * @param logFile        the file containing cvs log
      * @param moduleName     the name of the module which the cvs log file represents
      * @param repositoryPath the path used in cvs root while obtaining the log
+     * @param charset        the charset the log is written in
+     * @return CvsContent object represneting the commit information
+     * @throws IOException
+     * @throws LogSyntaxException
+     */
+    public CvsContent parseCvsLogs(final File logFile, final String moduleName, final String repositoryPath, final Charset charset) throws IOException, LogSyntaxException, LockException
+    {
+        return parseCvsLogs(logFile, moduleName, repositoryPath, charset, new JiraRevisionFilter());
+    }
+
+    /**
+     * Parses the commit information form the cvs log, keeping only the revisions accepted by the given filter
+     *
+     * @param logFile        the file containing cvs log
+     * @param moduleName     the name of the module which the cvs log file represents
+     * @param repositoryPath the path used in cvs root while obtaining the log
+     * @param charset        the charset the log is written in
+     * @param revisionFilter the filter deciding which revisions are retained
      * @return CvsContent object represneting the commit information
      * @throws IOException
      * @throws LogSyntaxException
      */
-    public CvsContent parseCvsLogs(final File logFile, final String moduleName, final String repositoryPath, final String repositoryName) throws IOException, LogSyntaxException, LockException
+    public CvsContent parseCvsLogs(final File logFile, final String moduleName, final String repositoryPath, final Charset charset, final JiraRevisionFilter revisionFilter) throws IOException, LogSyntaxException, LockException
     {
-        log.info("Parsing log.");
+        return parseCvsLogs(logFile, 0, moduleName, repositoryPath, charset, revisionFilter);
+    }
+
+    /**
+     * Parses the commit information form the part of the cvs log starting at the given offset, keeping only the
+     * revisions accepted by the given filter
+     *
+     * @param logFile        the file containing cvs log
+     * @param offset         the byte offset to start parsing at, 0 to parse the whole log
+     * @param moduleName     the name of the module which the cvs log file represents
+     * @param repositoryPath the path used in cvs root while obtaining the log
+     * @param charset        the charset the log is written in
+     * @param revisionFilter the filter deciding which revisions are retained
+     * @return CvsContent object represneting the commit information
+     * @throws IOException
+     * @throws LogSyntaxException
+     */
+    public CvsContent parseCvsLogs(final File logFile, final long offset, final String moduleName, final String repositoryPath, final Charset charset, final JiraRevisionFilter revisionFilter) throws IOException, LogSyntaxException, LockException
+    {
+        if (offset > 0)
+        {
+            log.info("Parsing log from offset " + offset + ".");
+        }
+        else
+        {
+            log.info("Parsing log.");
+        }
 
         CvsLogUtils.setCountLines(false);
-        final Reader logReader = getReader(repositoryName, logFile);
 
         final RepositoryFileManager repFileMan = new RepositoryFileManager(null);
         // Create a builder that parses information of all files and parses all branches
         final net.sf.statcvs.input.Builder builder = new net.sf.statcvs.input.Builder(repFileMan, null, null, null);
-        builder.setRevisionFilter(new JiraRevisionFilter());
+        builder.setRevisionFilter(revisionFilter);
         builder.buildModule(moduleName);
         builder.setRepository(repositoryPath);
 
@@ -160,10 +240,15 @@ public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
             throw new LockException(e.getMessage(), e);
         }
 
+        InputStream logStream = null;
+        Reader logReader = null;
         try
         {
             final long startTime = System.currentTimeMillis();
             CvsLogUtils.setCountLines(false);
+            logStream = offset > 0 ? openLogInputStream(logFile, offset) : openLogInputStream(logFile);
+            // The decoder of the charset replaces malformed input instead of failing the parse
+            logReader = new InputStreamReader(logStream, charset);
             final CvsLogfileParser cvsLogfileParser = new CvsLogfileParser(logReader, builder);
             cvsLogfileParser.parse();
             final CvsContent cvsContent = builder.createCvsContent();
@@ -196,33 +281,130 @@ public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
         finally
         {
             lock.release();
+            IOUtils.closeQuietly(logReader);
+            IOUtils.closeQuietly(logStream);
         }
     }
 
-    private Reader getReader(final String repositoryName, final File logFile) throws FileNotFoundException, UnsupportedEncodingException
+    public LogPosition getLogPosition(final File logFile, final long offset) throws IOException
     {
-        String encoding;
-        if (repositoryName != null)
+        if (offset < 0 || logFile.length() < offset || isCompressed(logFile))
         {
-            encoding = System.getProperty(KEY_CVS_REPOSITORY_ENCODING_PREFIX + repositoryName + KEY_CVS_REPOSITORY_POSTFIX);
+            return null;
+        }
 
-            if (encoding != null)
+        final long blockStart = Math.max(0, offset - LogPosition.CHECKSUM_BLOCK_SIZE);
+        final CRC32 checksum = new CRC32();
+        final InputStream in = openLogInputStream(logFile, blockStart);
+        try
+        {
+            final byte[] buffer = new byte[LOG_BUFFER_SIZE];
+            long remaining = offset - blockStart;
+            while (remaining > 0)
             {
-                if (log.isDebugEnabled())
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0)
                 {
-                    log.debug("Found forced encoding for '" + repositoryName + "' repository - using '" + encoding + "' to read file.");
+                    return null;
                 }
-                // Useful to overcome JDK 1.3 bug for reading input streams
-                return new InputStreamReader(new FileInputStream(logFile), encoding);
+                checksum.update(buffer, 0, read);
+                remaining -= read;
             }
         }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+        return new LogPosition(offset, checksum.getValue());
+    }
 
-        if (log.isDebugEnabled())
+    private boolean isCompressed(final File logFile) throws IOException
+    {
+        final InputStream in = new FileInputStream(logFile);
+        try
+        {
+            return in.read() == GZIP_MAGIC_FIRST_BYTE && in.read() == GZIP_MAGIC_SECOND_BYTE;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Opens the log for reading, transparently decompressing it if it was stored gzip compressed.
+     *
+     * @param logFile the file containing cvs log
+     * @return stream of the uncompressed log
+     * @throws IOException if the file cannot be read
+     */
+    private InputStream openLogInputStream(final File logFile) throws IOException
+    {
+        final BufferedInputStream in = new BufferedInputStream(new FileInputStream(logFile), LOG_BUFFER_SIZE);
+        try
+        {
+            // Logs fetched before compression was turned on, or maintained by an external process, are plain text
+            in.mark(2);
+            final boolean compressed = in.read() == GZIP_MAGIC_FIRST_BYTE && in.read() == GZIP_MAGIC_SECOND_BYTE;
+            in.reset();
+            return compressed ? new GZIPInputStream(in, LOG_BUFFER_SIZE) : in;
+        }
+        catch (final IOException e)
+        {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a plain text log for reading from the given offset.
+     *
+     * @param logFile the file containing cvs log
+     * @param offset  the byte offset to start reading at
+     * @return stream of the log starting at the offset
+     * @throws IOException if the file cannot be read
+     */
+    private InputStream openLogInputStream(final File logFile, final long offset) throws IOException
+    {
+        final FileInputStream in = new FileInputStream(logFile);
+        try
         {
-            log.debug("Did not find a forced encoding for '" + repositoryName + "' repository - using default.");
+            in.getChannel().position(offset);
+            return new BufferedInputStream(in, LOG_BUFFER_SIZE);
         }
+        catch (final IOException e)
+        {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+    }
 
-        return new InputStreamReader(new FileInputStream(logFile));
+    /**
+     * Opens the log for writing, compressing it if {@link #LOG_COMPRESSION_PROPERTY} is set.
+     *
+     * @param logFile the file where the cvs log will be written
+     * @return stream to write the log to
+     * @throws IOException if the file cannot be written
+     */
+    private WritableByteChannel openLogChannel(final File logFile) throws IOException
+    {
+        final String compression = System.getProperty(LOG_COMPRESSION_PROPERTY);
+        final FileOutputStream out = new FileOutputStream(logFile);
+        if (LOG_COMPRESSION_GZIP.equalsIgnoreCase(compression))
+        {
+            return Channels.newChannel(new GZIPOutputStream(out, LOG_BUFFER_SIZE));
+        }
+        else if (LOG_COMPRESSION_FAST.equalsIgnoreCase(compression))
+        {
+            return Channels.newChannel(new GZIPOutputStream(out, LOG_BUFFER_SIZE)
+            {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            });
+        }
+        // Plain logs are written straight from the direct buffer of the writer
+        return out.getChannel();
     }
 
     /**
@@ -232,11 +414,17 @@ public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
      * @param cvsRoot    the string representation of the CVS root
      * @param moduleName the name of the module the log of which we will be retrieving
      * @param password   the password for the repository (can be null)
+     * @param charset    the charset the log is written in
      * @throws AuthenticationException
      * @throws CommandException
      * @throws IOException
      */
-    public void updateCvs(final File logFile, final String cvsRoot, final String moduleName, final String password, final long cvsTimeout) throws AuthenticationException, CommandException, IOException, LockException
+    public void updateCvs(final File logFile, final String cvsRoot, final String moduleName, final String password, final long cvsTimeout, final Charset charset) throws AuthenticationException, CommandException, IOException, LockException
+    {
+        updateCvs(logFile, cvsRoot, moduleName, password, cvsTimeout, null, charset);
+    }
+
+    public void updateCvs(final File logFile, final String cvsRoot, final String moduleName, final String password, final long cvsTimeout, final Date since, final Charset charset) throws AuthenticationException, CommandException, IOException, LockException
     {
         log.info("Fetching log.");
         final long startTime = System.currentTimeMillis();
@@ -276,128 +464,74 @@ public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
                 // Create a writer to write the cvs log that is retrieved from the CVS server
                 // Ensure that the writer is instantiated only after we obtained the lock. Otherwise the cvs log file will be truncated
                 // while we do not have the lock.
-                final Writer cvsLogWriter = new BufferedWriter(new FileWriter(logFile));
-
-                final RlogCommand rlogCommand = new RlogCommand()
-                {
-                    // Do not want to query whether the files in the working directory of the cvs client are 'registered' with the CVS repository
-                    // all we want to do is get the log - so override the method and return 'false'
-                    @Override
-                    protected boolean assumeLocalPathWhenUnspecified()
-                    {
-                        return false;
-                    }
-                };
+                final ChannelLogWriter cvsLogWriter = new ChannelLogWriter(openLogChannel(logFile), charset, LINE_SEPARATOR,
+                        LOG_WRITE_BUFFER_SIZE, Boolean.getBoolean(LOG_FORCE_PROPERTY));
 
                 final Collection<String> commandErrors = new LinkedList<String>();
-                final Builder fileLogBuilder = new org.netbeans.lib.cvsclient.command.Builder()
+                final Boolean succeeded;
+                try
                 {
-                    public void parseLine(final String line, final boolean isErrorMessage)
+                    final RlogCommand rlogCommand = createRlogCommand();
+
+                    final Builder fileLogBuilder = new org.netbeans.lib.cvsclient.command.Builder()
                     {
-                        try
+                        public void parseLine(final String line, final boolean isErrorMessage)
                         {
-                            if (isErrorMessage)
+                            try
                             {
-                                if ((line != null) && (line.trim().length() > 0))
+                                if (isErrorMessage)
+                                {
+                                    if ((line != null) && (line.trim().length() > 0))
+                                    {
+                                        commandErrors.add(line);
+                                    }
+                                }
+                                else
                                 {
-                                    commandErrors.add(line);
+                                    cvsLogWriter.writeLine(line);
                                 }
                             }
-                            else
+                            catch (final IOException e)
                             {
-                                cvsLogWriter.write(line);
-                                cvsLogWriter.write(LINE_SEPARATOR);
+                                // TODO deal with the exception in client code
+                                throw new CvsLogException("Error while writing the log to " + logFile.getAbsolutePath() + ".", e);
                             }
                         }
-                        catch (final IOException e)
-                        {
-                            // TODO deal with the exception in client code
-                            throw new CvsLogException("Error while writing the log to " + logFile.getAbsolutePath() + ".", e);
-                        }
-                    }
-
-                    public void parseEnhancedMessage(final String key, final Object value)
-                    {}
 
-                    public void outputDone()
-                    {}
-                };
+                        public void parseEnhancedMessage(final String key, final Object value)
+                        {}
 
-                rlogCommand.setBuilder(fileLogBuilder);
-                rlogCommand.setModule(moduleName);
+                        public void outputDone()
+                        {}
+                    };
 
-                // Do 'cvs rlog > logfile'
-                final GlobalOptions globalOptions = new GlobalOptions();
-                // Ensure no 'useless' information is printed
-                globalOptions.setModeratelyQuiet(true);
-
-                final ExecutorService executor = Executors.newSingleThreadExecutor();
-                Boolean succeeded;
-                try
-                {
-                    final Future<Boolean> futureResult = executor.submit(new Callable<Boolean>()
+                    rlogCommand.setBuilder(fileLogBuilder);
+                    rlogCommand.setModule(moduleName);
+                    if (since != null)
                     {
-                        public Boolean call() throws Exception
-                        {
-                            return Boolean.valueOf(client.executeCommand(rlogCommand, globalOptions));
-                        }
-                    });
-                    succeeded = futureResult.get(cvsTimeout, TimeUnit.MILLISECONDS); // 10 minutes
-                }
-                catch (final InterruptedException e)
-                {
-                    final String message = ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText(
-                        "admin.error.cvsmodules.operation.exceeded.timeout", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(cvsTimeout)));
-                    throw new CommandException(message, message);
-                }
-                catch (final TimeoutException e)
-                {
-                    final String message = ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText(
-                        "admin.error.cvsmodules.operation.exceeded.timeout", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(cvsTimeout)));
-                    throw new CommandException(message, message);
-                }
-                catch (final ExecutionException e)
-                {
-                    final Throwable targetException = e.getCause();
-                    if (targetException instanceof CommandException)
-                    {
-                        throw ((CommandException) targetException);
-                    }
-                    else if (targetException instanceof AuthenticationException)
-                    {
-                        throw ((AuthenticationException) targetException);
-                    }
-                    else if (targetException instanceof RuntimeException)
-                    {
-                        throw ((RuntimeException) targetException);
+                        // Only fetch the retained history, and only the files that have any
+                        rlogCommand.setDateFilter(getDateFilter(since));
+                        rlogCommand.setSuppressHeader(true);
                     }
-                    else if (targetException instanceof Error)
+
+                    // Do 'cvs rlog > logfile'
+                    succeeded = executeRlog(client, rlogCommand, cvsTimeout);
+
+                    try
                     {
-                        throw ((Error) targetException);
+                        cvsLogWriter.flush();
+                        cvsLogWriter.close();
                     }
-                    else
+                    catch (final IOException e)
                     {
-                        // armour-piercing exception ... but what can you do? We have to account for an unexpected exception
-                        throw new RuntimeException("Unexepected exception from CVS client", targetException);
+                        log.error("Error while trying to write CVS log.", e);
+                        throw e;
                     }
                 }
                 finally
                 {
-                    executor.shutdown();
-                }
-
-                try
-                {
-                    cvsLogWriter.flush();
-                }
-                catch (final IOException e)
-                {
-                    log.error("Error while trying to write CVS log.", e);
-                    throw e;
-                }
-                finally
-                {
-                    cvsLogWriter.close();
+                    // Releases the channel if rlog or the builder failed, a no-op if it was closed above
+                    IOUtils.closeQuietly(cvsLogWriter);
                 }
 
                 if (!commandErrors.isEmpty())
@@ -446,6 +580,251 @@ public class CvsRepositoryUtilImpl implements CvsRepositoryUtil
         }
     }
 
+    /**
+     * @return the rlog date filter selecting the revisions committed since the given date
+     */
+    private static String getDateFilter(Date since)
+    {
+        return ">" + new SimpleDateFormat("yyyy-MM-dd", Locale.US).format(since);
+    }
+
+    private RlogCommand createRlogCommand()
+    {
+        return new RlogCommand()
+        {
+            // Do not want to query whether the files in the working directory of the cvs client are 'registered' with the CVS repository
+            // all we want to do is get the log - so override the method and return 'false'
+            @Override
+            protected boolean assumeLocalPathWhenUnspecified()
+            {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Executes the rlog command, giving up after the given timeout
+     *
+     * @return whether the command succeeded
+     */
+    private Boolean executeRlog(final Client client, final RlogCommand rlogCommand, final long cvsTimeout) throws CommandException, AuthenticationException
+    {
+        final GlobalOptions globalOptions = new GlobalOptions();
+        // Ensure no 'useless' information is printed
+        globalOptions.setModeratelyQuiet(true);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final Boolean succeeded;
+        try
+        {
+            final Future<Boolean> futureResult = executor.submit(new Callable<Boolean>()
+            {
+                public Boolean call() throws Exception
+                {
+                    return Boolean.valueOf(client.executeCommand(rlogCommand, globalOptions));
+                }
+            });
+            succeeded = futureResult.get(cvsTimeout, TimeUnit.MILLISECONDS); // 10 minutes
+        }
+        catch (final InterruptedException e)
+        {
+            final String message = ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText(
+                "admin.error.cvsmodules.operation.exceeded.timeout", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(cvsTimeout)));
+            throw new CommandException(message, message);
+        }
+        catch (final TimeoutException e)
+        {
+            final String message = ComponentAccessor.getJiraAuthenticationContext().getI18nHelper().getText(
+                "admin.error.cvsmodules.operation.exceeded.timeout", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(cvsTimeout)));
+            throw new CommandException(message, message);
+        }
+        catch (final ExecutionException e)
+        {
+            final Throwable targetException = e.getCause();
+            if (targetException instanceof CommandException)
+            {
+                throw ((CommandException) targetException);
+            }
+            else if (targetException instanceof AuthenticationException)
+            {
+                throw ((AuthenticationException) targetException);
+            }
+            else if (targetException instanceof RuntimeException)
+            {
+                throw ((RuntimeException) targetException);
+            }
+            else if (targetException instanceof Error)
+            {
+                throw ((Error) targetException);
+            }
+            else
+            {
+                // armour-piercing exception ... but what can you do? We have to account for an unexpected exception
+                throw new RuntimeException("Unexepected exception from CVS client", targetException);
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        return succeeded;
+    }
+
+    public int probeCvs(final File sampleFile, final String cvsRoot, final String moduleName, final String password, final long cvsTimeout, final int maxLines, final Charset charset)
+            throws AuthenticationException, CommandException, IOException
+    {
+        log.info("Probing module '" + moduleName + "'.");
+        final long startTime = System.currentTimeMillis();
+
+        Connection con = null;
+        final AtomicInteger sampledEntries = new AtomicInteger();
+        final Writer sampleWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sampleFile), charset));
+        try
+        {
+            // Opening the connection authenticates with the server
+            con = openConnectionToRepository(cvsRoot, password);
+            if (con == null)
+            {
+                final String message = "Failed to open connection to CVS respository.";
+                throw new CommandException(message, message);
+            }
+
+            final Client client = new Client(con, new StandardAdminHandler());
+            client.setLocalPath(sampleFile.getAbsoluteFile().getParent());
+
+            final RlogCommand rlogCommand = createRlogCommand();
+            rlogCommand.setModule(moduleName);
+            // Only sample the recent history, and only the files that have any
+            rlogCommand.setDateFilter(getDateFilter(new Date(System.currentTimeMillis() - PROBE_PERIOD)));
+            rlogCommand.setSuppressHeader(true);
+
+            final Collection<String> commandErrors = new LinkedList<String>();
+            final StringBuilder fileEntry = new StringBuilder();
+            final AtomicInteger sampledLines = new AtomicInteger();
+            final AtomicBoolean aborted = new AtomicBoolean();
+            rlogCommand.setBuilder(new org.netbeans.lib.cvsclient.command.Builder()
+            {
+                public void parseLine(final String line, final boolean isErrorMessage)
+                {
+                    if (aborted.get())
+                    {
+                        return;
+                    }
+                    if (isErrorMessage)
+                    {
+                        if ((line != null) && (line.trim().length() > 0))
+                        {
+                            commandErrors.add(line);
+                        }
+                        return;
+                    }
+
+                    fileEntry.append(line).append(LINE_SEPARATOR);
+                    try
+                    {
+                        // Only complete file entries are kept so that the sample can be parsed
+                        if (line != null && line.startsWith(FILE_ENTRY_SEPARATOR))
+                        {
+                            sampleWriter.write(fileEntry.toString());
+                            fileEntry.setLength(0);
+                            sampledEntries.incrementAndGet();
+                        }
+                    }
+                    catch (final IOException e)
+                    {
+                        throw new CvsLogException("Error while writing the log sample to " + sampleFile.getAbsolutePath() + ".", e);
+                    }
+
+                    if (sampledLines.incrementAndGet() >= maxLines)
+                    {
+                        aborted.set(true);
+                        client.abort();
+                    }
+                }
+
+                public void parseEnhancedMessage(final String key, final Object value)
+                {}
+
+                public void outputDone()
+                {}
+            });
+
+            Boolean succeeded;
+            try
+            {
+                succeeded = executeRlog(client, rlogCommand, cvsTimeout);
+            }
+            catch (final CommandException e)
+            {
+                // Aborting the command once the sample is complete is expected
+                if (!aborted.get())
+                {
+                    throw e;
+                }
+                succeeded = Boolean.TRUE;
+            }
+
+            if (!aborted.get())
+            {
+                if (!commandErrors.isEmpty())
+                {
+                    final String message = StringUtils.join(commandErrors, " ");
+                    throw new CommandException(message, message);
+                }
+                if ((succeeded == null) || !succeeded.booleanValue())
+                {
+                    final String message = "CVS rlog command failed but did not produce any errors.";
+                    throw new CommandException(message, message);
+                }
+            }
+        }
+        finally
+        {
+            IOUtils.closeQuietly(sampleWriter);
+            if ((con != null) && con.isOpen())
+            {
+                con.close();
+            }
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Probing module '" + moduleName + "' took " + (System.currentTimeMillis() - startTime) + "ms.");
+        }
+        return sampledEntries.get();
+    }
+
+    public void importLog(final File source, final File logFile) throws IOException, LockException
+    {
+        log.info("Importing log from '" + source.getAbsolutePath() + "'.");
+        final Lock lock = getLock(logFile);
+        try
+        {
+            if (!lock.obtain(LOCK_OBTAIN_TIMEOUT))
+            {
+                throw new LockException("Could not obtain lock '" + lock.getLockFilePath() + "' in " + LOCK_OBTAIN_TIMEOUT + " msecs.");
+            }
+        }
+        catch (final IOException e)
+        {
+            throw new LockException(e.getMessage(), e);
+        }
+
+        try
+        {
+            FileUtils.copyFile(source, logFile);
+        }
+        finally
+        {
+            lock.release();
+        }
+    }
+
+    public boolean isLogLocked(final File logFile)
+    {
+        return new File(getLock(logFile).getLockFilePath()).exists();
+    }
+
     public Connection openConnectionToRepository(final String cvsRoot, final String password) throws CommandAbortedException, AuthenticationException
     {
         final CVSRoot root = parseCvsRoot(cvsRoot);
@@ -0,0 +1,161 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import com.atlassian.jira.util.JiraKeyUtils;
+import net.sf.statcvs.input.CommitListBuilder;
+import net.sf.statcvs.model.Commit;
+import net.sf.statcvs.model.CvsRevision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * Index of the commits of a repository by the issue keys their comments reference. For every issue key the index keeps
+ * the dates, authors and branches of its commits, sorted by date, so the issues committed against since a date are
+ * found without building commits or matching comments. The index is immutable and is rebuilt whenever the revisions of
+ * the repository change.
+ */
+public final class IssueCommitIndex
+{
+    private final Map<String, CommitEntries> byIssueKey;
+
+    /**
+     * @param revisions the revisions of the repository, in the order of their dates
+     */
+    public IssueCommitIndex(SortedSet<CvsRevision> revisions)
+    {
+        final Map<String, List<Commit>> issueCommits = new HashMap<String, List<Commit>>();
+        if (!revisions.isEmpty())
+        {
+            @SuppressWarnings ({ "unchecked" }) final List<Commit> commits = new CommitListBuilder(revisions).createCommitList();
+            for (Commit commit : commits)
+            {
+                if (commit.getComment() == null)
+                {
+                    continue;
+                }
+                // Placeholders of comments stored outside of the heap still contain the issue keys of the comment
+                @SuppressWarnings ({ "unchecked" }) final List<String> issueKeys = JiraKeyUtils.getIssueKeysFromString(commit.getComment());
+                for (String issueKey : new HashSet<String>(issueKeys))
+                {
+                    List<Commit> list = issueCommits.get(issueKey);
+                    if (list == null)
+                    {
+                        list = new ArrayList<Commit>();
+                        issueCommits.put(issueKey, list);
+                    }
+                    list.add(commit);
+                }
+            }
+        }
+
+        this.byIssueKey = new HashMap<String, CommitEntries>(issueCommits.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<Commit>> entry : issueCommits.entrySet())
+        {
+            byIssueKey.put(entry.getKey(), new CommitEntries(entry.getValue()));
+        }
+    }
+
+    /**
+     * Returns the keys of the issues referenced by a commit matching all of the given filters.
+     *
+     * @param from   the earliest commit date (inclusive), or null for no lower bound
+     * @param author the CVS login of the author, or null for all authors
+     * @param branch the name of the branch, or null for all branches
+     * @return the issue keys, as written in the commit comments
+     */
+    public Set<String> getIssueKeys(Date from, String author, String branch)
+    {
+        final long fromTime = from == null ? Long.MIN_VALUE : from.getTime();
+        final Set<String> issueKeys = new HashSet<String>();
+        for (Map.Entry<String, CommitEntries> entry : byIssueKey.entrySet())
+        {
+            if (entry.getValue().matches(fromTime, author, branch))
+            {
+                issueKeys.add(entry.getKey());
+            }
+        }
+        return issueKeys;
+    }
+
+    /**
+     * @return the number of issue keys referenced by the commits of the repository
+     */
+    public int size()
+    {
+        return byIssueKey.size();
+    }
+
+    /**
+     * @return the number of commits of all issue keys, a commit referencing several issue keys counts once per key
+     */
+    public int getCommitCount()
+    {
+        int count = 0;
+        for (CommitEntries entries : byIssueKey.values())
+        {
+            count += entries.times.length;
+        }
+        return count;
+    }
+
+    private static final class CommitEntries
+    {
+        private final long[] times;
+        private final String[] authors;
+        private final String[] branches;
+
+        private CommitEntries(Collection<Commit> sortedCommits)
+        {
+            this.times = new long[sortedCommits.size()];
+            this.authors = new String[times.length];
+            this.branches = new String[times.length];
+            int i = 0;
+            for (Commit commit : sortedCommits)
+            {
+                times[i] = commit.getDate().getTime();
+                authors[i] = commit.getAuthor() == null ? null : commit.getAuthor().getName();
+                branches[i] = commit.getMainBranch() == null ? null : commit.getMainBranch().getName();
+                i++;
+            }
+        }
+
+        private boolean matches(long from, String author, String branch)
+        {
+            if (times.length == 0 || times[times.length - 1] < from)
+            {
+                return false;
+            }
+            if (author == null && branch == null)
+            {
+                return true;
+            }
+
+            int index = Arrays.binarySearch(times, from);
+            if (index < 0)
+            {
+                index = -index - 1;
+            }
+            // Several commits may share the time, start at the first one
+            while (index > 0 && times[index - 1] == from)
+            {
+                index--;
+            }
+            for (int i = index; i < times.length; i++)
+            {
+                if ((author == null || author.equals(authors[i])) && (branch == null || branch.equals(branches[i])))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import net.sf.statcvs.model.Commit;
+
+import java.util.List;
+
+/**
+ * The commits of an issue matched in the content of a repository, see
+ * {@link CvsRepository#matchCommits(String, String, long)}.
+ */
+public final class IssueCommitMatch
+{
+    private final List<Commit> commits;
+    private final boolean complete;
+
+    public IssueCommitMatch(List<Commit> commits, boolean complete)
+    {
+        this.commits = commits;
+        this.complete = complete;
+    }
+
+    /**
+     * @return the matched commits, sorted by date
+     */
+    public List<Commit> getCommits()
+    {
+        return commits;
+    }
+
+    /**
+     * @return false if matching stopped at the deadline before all revisions were scanned
+     */
+    public boolean isComplete()
+    {
+        return complete;
+    }
+}
@@ -4,9 +4,104 @@ import com.atlassian.jira.util.JiraKeyUtils;
 import net.sf.statcvs.input.RevisionData;
 import net.sf.statcvs.input.RevisionFilter;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps only the revisions whose comment references a JIRA issue.
+ * <p/>
+ * By default any JIRA-looking key is accepted. When created with a set of project keys the filter is project scoped
+ * and only keeps revisions that reference an issue of one of those projects.
+ * <p/>
+ * If a {@link CommentStore} is given, the comments of the retained revisions are moved to the store. If a retention
+ * start is given, revisions committed before it are dropped.
+ */
 public class JiraRevisionFilter implements RevisionFilter
 {
-    public boolean isValid(RevisionData revisionData) {
-       return JiraKeyUtils.isKeyInString(revisionData.getComment());
+    private final Set<String> projectKeys;
+    private final CommentStore commentStore;
+    private final Date retentionStart;
+
+    public JiraRevisionFilter()
+    {
+        this(null);
+    }
+
+    /**
+     * @param projectKeys the project keys (current and historical) to retain revisions for, or null to retain
+     *                    revisions referencing any issue key
+     */
+    public JiraRevisionFilter(Collection<String> projectKeys)
+    {
+        this(projectKeys, null);
+    }
+
+    /**
+     * @param projectKeys  the project keys (current and historical) to retain revisions for, or null to retain
+     *                     revisions referencing any issue key
+     * @param commentStore the store to move the comments of retained revisions to, or null to keep them on the heap
+     */
+    public JiraRevisionFilter(Collection<String> projectKeys, CommentStore commentStore)
+    {
+        this(projectKeys, commentStore, null);
+    }
+
+    /**
+     * @param projectKeys    the project keys (current and historical) to retain revisions for, or null to retain
+     *                       revisions referencing any issue key
+     * @param commentStore   the store to move the comments of retained revisions to, or null to keep them on the heap
+     * @param retentionStart the date before which revisions are dropped, or null to retain all history
+     */
+    public JiraRevisionFilter(Collection<String> projectKeys, CommentStore commentStore, Date retentionStart)
+    {
+        this.projectKeys = projectKeys == null ? null : Collections.unmodifiableSet(new HashSet<String>(projectKeys));
+        this.commentStore = commentStore;
+        this.retentionStart = retentionStart;
+    }
+
+    public boolean isValid(RevisionData revisionData)
+    {
+        if (retentionStart != null && revisionData.getDate() != null && revisionData.getDate().before(retentionStart))
+        {
+            return false;
+        }
+
+        final String comment = revisionData.getComment();
+        final boolean valid = projectKeys == null ? JiraKeyUtils.isKeyInString(comment) : isProjectKeyInString(comment);
+        if (valid && commentStore != null)
+        {
+            revisionData.setComment(commentStore.store(comment));
+        }
+        return valid;
+    }
+
+    private boolean isProjectKeyInString(String comment)
+    {
+        if (projectKeys.isEmpty() || comment == null)
+        {
+            return false;
+        }
+
+        @SuppressWarnings ({ "unchecked" }) final List<String> issueKeys = JiraKeyUtils.getIssueKeysFromString(comment);
+        for (String issueKey : issueKeys)
+        {
+            if (projectKeys.contains(JiraKeyUtils.getProjectKeyFromIssueKey(issueKey)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the project keys this filter is scoped to, or null if the filter accepts any issue key
+     */
+    public Set<String> getProjectKeys()
+    {
+        return projectKeys;
     }
 }
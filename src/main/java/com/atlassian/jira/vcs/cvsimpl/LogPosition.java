@@ -0,0 +1,55 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+/**
+ * The position up to which a cvs log was parsed, together with a checksum of the block of the log just before it.
+ * <p/>
+ * If a log file that is only ever appended to still has the same checksum at the same position, everything before the
+ * position is unchanged and only the rest of the file needs to be parsed.
+ */
+public final class LogPosition
+{
+    /**
+     * Number of bytes before the offset covered by the checksum
+     */
+    public static final int CHECKSUM_BLOCK_SIZE = 64 * 1024;
+
+    private final long offset;
+    private final long checksum;
+
+    public LogPosition(long offset, long checksum)
+    {
+        this.offset = offset;
+        this.checksum = checksum;
+    }
+
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    public long getChecksum()
+    {
+        return checksum;
+    }
+
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof LogPosition)) return false;
+
+        final LogPosition logPosition = (LogPosition) o;
+        return offset == logPosition.offset && checksum == logPosition.checksum;
+    }
+
+    public int hashCode()
+    {
+        int result = (int) (offset ^ (offset >>> 32));
+        result = 29 * result + (int) (checksum ^ (checksum >>> 32));
+        return result;
+    }
+
+    public String toString()
+    {
+        return "offset=" + offset + ",checksum=" + checksum;
+    }
+}
@@ -0,0 +1,124 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import net.sf.statcvs.model.CvsRevision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Secondary indexes of the parsed revisions of a repository, by author and by commit date. The index is immutable and
+ * is rebuilt whenever the revisions of the repository change.
+ * <p/>
+ * Revisions are kept in arrays sorted by date, together with their commit times, so that the revisions of a date range
+ * are found by binary search instead of scanning all revisions.
+ */
+public final class RevisionIndex
+{
+    private final DateRange all;
+    private final Map<String, DateRange> byAuthor;
+
+    /**
+     * @param revisions the revisions of the repository, in the order of their dates
+     */
+    public RevisionIndex(Collection<CvsRevision> revisions)
+    {
+        final Map<String, List<CvsRevision>> authorRevisions = new HashMap<String, List<CvsRevision>>();
+        for (CvsRevision revision : revisions)
+        {
+            final String author = getAuthor(revision);
+            List<CvsRevision> list = authorRevisions.get(author);
+            if (list == null)
+            {
+                list = new ArrayList<CvsRevision>();
+                authorRevisions.put(author, list);
+            }
+            list.add(revision);
+        }
+
+        this.all = new DateRange(revisions);
+        this.byAuthor = new HashMap<String, DateRange>(authorRevisions.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<CvsRevision>> entry : authorRevisions.entrySet())
+        {
+            byAuthor.put(entry.getKey(), new DateRange(entry.getValue()));
+        }
+    }
+
+    /**
+     * Returns the revisions committed by the given author in the given period.
+     *
+     * @param author the CVS login of the author, or null for all authors
+     * @param from   the start of the period (inclusive), or null for no lower bound
+     * @param to     the end of the period (exclusive), or null for no upper bound
+     * @return the revisions, sorted by date
+     */
+    public SortedSet<CvsRevision> getRevisions(String author, Date from, Date to)
+    {
+        final DateRange range = author == null ? all : byAuthor.get(author);
+        final SortedSet<CvsRevision> result = new TreeSet<CvsRevision>();
+        if (range != null)
+        {
+            range.addRevisions(from == null ? Long.MIN_VALUE : from.getTime(), to == null ? Long.MAX_VALUE : to.getTime(), result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the CVS logins of all authors of the indexed revisions
+     */
+    public Collection<String> getAuthors()
+    {
+        return Collections.unmodifiableSet(byAuthor.keySet());
+    }
+
+    private static String getAuthor(CvsRevision revision)
+    {
+        return revision.getAuthor() == null ? null : revision.getAuthor().getName();
+    }
+
+    private static final class DateRange
+    {
+        private final long[] times;
+        private final CvsRevision[] revisions;
+
+        private DateRange(Collection<CvsRevision> sortedRevisions)
+        {
+            this.revisions = sortedRevisions.toArray(new CvsRevision[sortedRevisions.size()]);
+            this.times = new long[revisions.length];
+            for (int i = 0; i < revisions.length; i++)
+            {
+                times[i] = revisions[i].getDate().getTime();
+            }
+        }
+
+        private void addRevisions(long from, long to, Collection<CvsRevision> result)
+        {
+            for (int i = firstIndexAtOrAfter(from); i < times.length && times[i] < to; i++)
+            {
+                result.add(revisions[i]);
+            }
+        }
+
+        private int firstIndexAtOrAfter(long time)
+        {
+            int index = Arrays.binarySearch(times, time);
+            if (index < 0)
+            {
+                return -index - 1;
+            }
+            // Several revisions may share the time, find the first one
+            while (index > 0 && times[index - 1] == time)
+            {
+                index--;
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import net.sf.statcvs.model.CvsRevision;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Inverted index of the words of the commit comments and file paths of the parsed revisions of a repository.
+ * <p/>
+ * Every revision gets a position in the order of the revisions' dates. The index maps each token to the sorted
+ * positions of the revisions whose comment or file path contains it, so the revisions containing all tokens of a query
+ * are found by intersecting a few arrays. The index is immutable and is rebuilt whenever the revisions change.
+ */
+public final class TokenIndex
+{
+    private static final int MIN_TOKEN_LENGTH = 2;
+
+    private final CvsRevision[] revisions;
+    private final Map<String, int[]> postings;
+
+    /**
+     * @param revisions    the revisions of the repository, in the order of their dates
+     * @param commentStore the store the comments of the revisions were moved to, or null if they are on the heap
+     */
+    public TokenIndex(Collection<CvsRevision> revisions, CommentStore commentStore)
+    {
+        this.revisions = revisions.toArray(new CvsRevision[revisions.size()]);
+
+        final Map<String, PositionList> positions = new HashMap<String, PositionList>();
+        // The revisions of a commit share their comment, so each distinct comment is only decoded and split once
+        final Map<String, Set<String>> commentTokens = new HashMap<String, Set<String>>();
+        for (int position = 0; position < this.revisions.length; position++)
+        {
+            final CvsRevision revision = this.revisions[position];
+            final String comment = revision.getComment();
+            Set<String> tokens = comment == null ? null : commentTokens.get(comment);
+            if (tokens == null)
+            {
+                tokens = tokenize(commentStore == null ? comment : commentStore.resolve(comment));
+                if (comment != null)
+                {
+                    commentTokens.put(comment, tokens);
+                }
+            }
+
+            final Set<String> revisionTokens = new LinkedHashSet<String>(tokens);
+            revisionTokens.addAll(tokenize(revision.getFile().getFilenameWithPath()));
+            for (String token : revisionTokens)
+            {
+                PositionList list = positions.get(token);
+                if (list == null)
+                {
+                    list = new PositionList();
+                    positions.put(token, list);
+                }
+                list.add(position);
+            }
+        }
+
+        this.postings = new HashMap<String, int[]>(positions.size() * 4 / 3 + 1);
+        for (Map.Entry<String, PositionList> entry : positions.entrySet())
+        {
+            postings.put(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+
+    /**
+     * Returns the revisions whose comment or file path contains all words of the query.
+     *
+     * @param query the words to search for
+     * @return the matching revisions sorted by date, empty if the query contains no words
+     */
+    public SortedSet<CvsRevision> search(String query)
+    {
+        final SortedSet<CvsRevision> result = new TreeSet<CvsRevision>();
+        final Set<String> tokens = tokenize(query);
+        if (tokens.isEmpty())
+        {
+            return result;
+        }
+
+        // Intersect the shortest lists first
+        final List<int[]> lists = new ArrayList<int[]>(tokens.size());
+        for (String token : tokens)
+        {
+            final int[] list = postings.get(token);
+            if (list == null)
+            {
+                return result;
+            }
+            lists.add(list);
+        }
+        Collections.sort(lists, new Comparator<int[]>()
+        {
+            public int compare(int[] o1, int[] o2)
+            {
+                return o1.length < o2.length ? -1 : (o1.length == o2.length ? 0 : 1);
+            }
+        });
+
+        int[] matches = lists.get(0);
+        for (int i = 1; i < lists.size() && matches.length > 0; i++)
+        {
+            matches = intersect(matches, lists.get(i));
+        }
+        for (int position : matches)
+        {
+            result.add(revisions[position]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of distinct tokens
+     */
+    public int size()
+    {
+        return postings.size();
+    }
+
+    /**
+     * @return the number of revision positions of all tokens
+     */
+    public long getPostingCount()
+    {
+        long count = 0;
+        for (int[] list : postings.values())
+        {
+            count += list.length;
+        }
+        return count;
+    }
+
+    /**
+     * Splits the text into lower case words of letters and digits.
+     *
+     * @param text the text to split, may be null
+     * @return the distinct words of the text
+     */
+    static Set<String> tokenize(String text)
+    {
+        final Set<String> tokens = new LinkedHashSet<String>();
+        if (text == null)
+        {
+            return tokens;
+        }
+
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++)
+        {
+            final boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0)
+            {
+                start = i;
+            }
+            else if (!wordChar && start >= 0)
+            {
+                if (i - start >= MIN_TOKEN_LENGTH)
+                {
+                    tokens.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static int[] intersect(int[] a, int[] b)
+    {
+        final int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length)
+        {
+            if (a[i] < b[j])
+            {
+                i++;
+            }
+            else if (a[i] > b[j])
+            {
+                j++;
+            }
+            else
+            {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static final class PositionList
+    {
+        private int[] positions = new int[4];
+        private int size;
+
+        private void add(int position)
+        {
+            if (size == positions.length)
+            {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        private int[] toArray()
+        {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.atlassian.jira.vcs;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.association.NodeAssociationStore;
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.jira.issue.changehistory.ChangeHistoryManager;
+import com.atlassian.jira.ofbiz.OfBizDelegator;
+import com.atlassian.jira.project.ProjectFactory;
+import com.atlassian.jira.project.ProjectManager;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.vcs.cvsimpl.CvsRepository;
+import com.atlassian.jira.vcs.cvsimpl.CvsRepositoryUtilImpl;
+import com.atlassian.jira.vcs.cvsimpl.JiraRevisionFilter;
+import com.atlassian.sal.api.scheduling.PluginScheduler;
+import com.opensymphony.module.propertyset.PropertySet;
+import net.sf.statcvs.model.CvsContent;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs two managers sharing an index directory, like two nodes of a cluster, against a CVS server that is never
+ * contacted: fetching the log writes a fixed log and parsing it only counts the calls.
+ */
+public class DefaultRepositoryManagerClusterTest
+{
+    private static final Long REPOSITORY_ID = 10000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SharedRepositoryIndex sharedIndex;
+    private CountingCvsRepositoryUtil util1;
+    private CountingCvsRepositoryUtil util2;
+    private DefaultRepositoryManager node1;
+    private DefaultRepositoryManager node2;
+    private CvsRepository repository2;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        sharedIndex = new SharedRepositoryIndex(temporaryFolder.newFolder("shared"));
+        util1 = new CountingCvsRepositoryUtil("RCS file: /cvsroot/module/file.txt,v\n");
+        util2 = new CountingCvsRepositoryUtil("not expected to be fetched\n");
+        node1 = createManager("node1", util1);
+        node2 = createManager("node2", util2);
+        node1.addRepository(createRepository(util1, temporaryFolder.newFile("node1.log")));
+        repository2 = createRepository(util2, temporaryFolder.newFile("node2.log"));
+        node2.addRepository(repository2);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        node1.destroy();
+        node2.destroy();
+    }
+
+    @Test
+    public void onlyLeaseHolderFetchesAndOtherNodeLoadsSnapshot() throws Exception
+    {
+        assertTrue(node1.updateRepositories());
+        assertEquals(1, util1.updates);
+        assertEquals(1, util1.parses);
+        assertEquals(1, sharedIndex.getGeneration(REPOSITORY_ID));
+
+        assertTrue(node2.updateRepositories());
+        assertEquals(0, util2.updates);
+        assertEquals(1, util2.parses);
+        assertEquals(1, repository2.getSnapshotGeneration());
+        assertEquals("RCS file: /cvsroot/module/file.txt,v\n", FileUtils.readFileToString(repository2.getParsedLogFile(), "UTF-8"));
+    }
+
+    @Test
+    public void otherNodeDoesNotReloadUnchangedGeneration() throws Exception
+    {
+        node1.updateRepositories();
+        node2.updateRepositories();
+        node2.updateRepositories();
+        assertEquals(1, util2.parses);
+
+        // A changed log is published as a new generation, which is loaded on the next update
+        util1.log = "RCS file: /cvsroot/module/other.txt,v\n";
+        node1.updateRepositories();
+        assertEquals(2, sharedIndex.getGeneration(REPOSITORY_ID));
+        node2.updateRepositories();
+        assertEquals(0, util2.updates);
+        assertEquals(2, util2.parses);
+        assertEquals(2, repository2.getSnapshotGeneration());
+    }
+
+    @Test
+    public void unchangedLogIsNotPublishedAgain() throws Exception
+    {
+        node1.updateRepositories();
+        node2.updateRepositories();
+
+        node1.updateRepositories();
+        assertEquals(2, util1.updates);
+        assertEquals(1, sharedIndex.getGeneration(REPOSITORY_ID));
+        node2.updateRepositories();
+        assertEquals(1, util2.parses);
+    }
+
+    private DefaultRepositoryManager createManager(String nodeId, CountingCvsRepositoryUtil cvsRepositoryUtil) throws Exception
+    {
+        final Map<String, Object> clusterAnswers = new HashMap<String, Object>();
+        clusterAnswers.put("getNodeId", nodeId);
+        clusterAnswers.put("isClustered", Boolean.TRUE);
+        // Every repository is associated with a project
+        final Map<String, Object> associationAnswers = new HashMap<String, Object>();
+        associationAnswers.put("getSourcesFromSink", Collections.singletonList(null));
+
+        return new DefaultRepositoryManager(stub(OfBizDelegator.class), stub(PluginScheduler.class), stub(PermissionManager.class),
+                stub(ChangeHistoryManager.class), stub(ProjectManager.class), stub(ProjectFactory.class), stub(EventPublisher.class),
+                cvsRepositoryUtil, stub(NodeAssociationStore.class, associationAnswers), stub(ClusterManager.class, clusterAnswers),
+                new SharedRepositoryIndex(sharedIndex.getDirectory()));
+    }
+
+    private static CvsRepository createRepository(CountingCvsRepositoryUtil cvsRepositoryUtil, File logFile)
+    {
+        final Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put(CvsRepository.KEY_CVS_ROOT, ":pserver:anonymous@localhost:/cvsroot");
+        properties.put(CvsRepository.KEY_MODULE_NAME, "module");
+        properties.put(CvsRepository.KEY_FETCH_LOG, "true");
+        properties.put(CvsRepository.KEY_LOG_FILE_PATH, logFile.getAbsolutePath());
+        properties.put(CvsRepository.KEY_ENCODING, "UTF-8");
+
+        final CvsRepository repository = new CvsRepository(stub(PropertySet.class, Collections.<String, Object>emptyMap(), properties), cvsRepositoryUtil);
+        repository.setId(REPOSITORY_ID);
+        repository.setName("module");
+        return repository;
+    }
+
+    private static <T> T stub(Class<T> type)
+    {
+        return stub(type, Collections.<String, Object>emptyMap());
+    }
+
+    private static <T> T stub(Class<T> type, Map<String, Object> answers)
+    {
+        return stub(type, answers, Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * Creates an implementation of the interface that answers the given methods with the given values, getString with
+     * the given properties and any other method with an empty or default value.
+     */
+    private static <T> T stub(Class<T> type, final Map<String, Object> answers, final Map<String, Object> properties)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (answers.containsKey(method.getName()))
+                {
+                    return answers.get(method.getName());
+                }
+                if ("getString".equals(method.getName()) && args != null && args.length == 1)
+                {
+                    return properties.get(args[0]);
+                }
+                final Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class)
+                {
+                    return Boolean.FALSE;
+                }
+                if (returnType == int.class)
+                {
+                    return 0;
+                }
+                if (returnType == long.class)
+                {
+                    return 0L;
+                }
+                if (returnType == List.class || returnType == Collection.class)
+                {
+                    return Collections.emptyList();
+                }
+                if (returnType == Set.class)
+                {
+                    return Collections.emptySet();
+                }
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Writes a fixed log instead of contacting the CVS server and counts the fetches and parses. Copying logs is left
+     * to the real implementation.
+     */
+    private static class CountingCvsRepositoryUtil extends CvsRepositoryUtilImpl
+    {
+        private String log;
+        private int updates;
+        private int parses;
+
+        private CountingCvsRepositoryUtil(String log)
+        {
+            this.log = log;
+        }
+
+        @Override
+        public void updateCvs(File logFile, String cvsRoot, String moduleName, String password, long cvsTimeout, Date since, Charset charset) throws IOException
+        {
+            updates++;
+            FileUtils.writeStringToFile(logFile, log, "UTF-8");
+        }
+
+        @Override
+        public CvsContent parseCvsLogs(File logFile, long offset, String moduleName, String repositoryPath, Charset charset, JiraRevisionFilter revisionFilter)
+        {
+            parses++;
+            return new CvsContent();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.atlassian.jira.vcs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultRepositoryManagerTest
+{
+    @Test
+    public void moduleIsAffectedByItsOwnPaths()
+    {
+        assertTrue(DefaultRepositoryManager.isModuleAffected("module", Arrays.asList("module")));
+        assertTrue(DefaultRepositoryManager.isModuleAffected("module", Arrays.asList("other", "module/sub/file.txt")));
+    }
+
+    @Test
+    public void moduleIsNotAffectedByModuleWithCommonPrefix()
+    {
+        assertFalse(DefaultRepositoryManager.isModuleAffected("module", Arrays.asList("mod")));
+        assertFalse(DefaultRepositoryManager.isModuleAffected("mod", Arrays.asList("module", "module/file.txt")));
+        assertFalse(DefaultRepositoryManager.isModuleAffected("module", Arrays.asList("modules/file.txt")));
+    }
+
+    @Test
+    public void moduleIsAffectedByChangedParentPath()
+    {
+        assertTrue(DefaultRepositoryManager.isModuleAffected("module/sub", Arrays.asList("module")));
+        assertFalse(DefaultRepositoryManager.isModuleAffected("module/sub", Arrays.asList("module/other")));
+    }
+
+    @Test
+    public void leadingAndTrailingSlashesAreIgnored()
+    {
+        assertTrue(DefaultRepositoryManager.isModuleAffected("/module/", Arrays.asList("module/sub/file.txt")));
+        assertTrue(DefaultRepositoryManager.isModuleAffected("module", Arrays.asList("/module/")));
+        assertTrue(DefaultRepositoryManager.isModuleAffected(" module/sub ", Arrays.asList("/module")));
+    }
+
+    @Test
+    public void wholeRootIsAffectedByAnyPath()
+    {
+        assertTrue(DefaultRepositoryManager.isModuleAffected("", Arrays.asList("module")));
+        assertTrue(DefaultRepositoryManager.isModuleAffected(".", Arrays.asList("module")));
+        assertTrue(DefaultRepositoryManager.isModuleAffected("/", Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void repositoryWithoutModuleIsNotAffected()
+    {
+        assertFalse(DefaultRepositoryManager.isModuleAffected(null, Arrays.asList("module")));
+    }
+}
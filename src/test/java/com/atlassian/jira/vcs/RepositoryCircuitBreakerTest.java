@@ -0,0 +1,77 @@
+package com.atlassian.jira.vcs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryCircuitBreakerTest
+{
+    private static final Long REPOSITORY_ID = 10000L;
+
+    private long now;
+    private RepositoryCircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp()
+    {
+        now = 1000000L;
+        circuitBreaker = new RepositoryCircuitBreaker()
+        {
+            @Override
+            long currentTimeMillis()
+            {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures()
+    {
+        assertEquals(RepositoryCircuitBreaker.State.CLOSED, circuitBreaker.recordFailure(REPOSITORY_ID, "timeout"));
+        assertTrue(circuitBreaker.allowRequest(REPOSITORY_ID));
+        assertEquals(RepositoryCircuitBreaker.State.OPEN, circuitBreaker.recordFailure(REPOSITORY_ID, "timeout"));
+        assertFalse(circuitBreaker.allowRequest(REPOSITORY_ID));
+        assertEquals(now + RepositoryCircuitBreaker.INITIAL_OPEN_DURATION, circuitBreaker.getStatus(REPOSITORY_ID).getRetryAt().getTime());
+    }
+
+    @Test
+    public void successCloses()
+    {
+        circuitBreaker.recordFailure(REPOSITORY_ID, "timeout");
+        circuitBreaker.recordSuccess(REPOSITORY_ID);
+        assertNull(circuitBreaker.getStatus(REPOSITORY_ID));
+        assertEquals(RepositoryCircuitBreaker.State.CLOSED, circuitBreaker.recordFailure(REPOSITORY_ID, "timeout"));
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThroughAndBacksOff()
+    {
+        circuitBreaker.recordFailure(REPOSITORY_ID, "timeout");
+        circuitBreaker.recordFailure(REPOSITORY_ID, "timeout");
+
+        now += RepositoryCircuitBreaker.INITIAL_OPEN_DURATION;
+        assertTrue(circuitBreaker.allowRequest(REPOSITORY_ID));
+        assertEquals(RepositoryCircuitBreaker.State.HALF_OPEN, circuitBreaker.getStatus(REPOSITORY_ID).getState());
+        assertFalse(circuitBreaker.allowRequest(REPOSITORY_ID));
+
+        // A failed probe opens the circuit for twice as long
+        assertEquals(RepositoryCircuitBreaker.State.OPEN, circuitBreaker.recordFailure(REPOSITORY_ID, "timeout"));
+        assertEquals(now + 2 * RepositoryCircuitBreaker.INITIAL_OPEN_DURATION, circuitBreaker.getStatus(REPOSITORY_ID).getRetryAt().getTime());
+        assertEquals(3, circuitBreaker.getStatus(REPOSITORY_ID).getConsecutiveFailures());
+    }
+
+    @Test
+    public void backoffIsCapped()
+    {
+        for (int i = 0; i < 20; i++)
+        {
+            circuitBreaker.recordFailure(REPOSITORY_ID, "timeout");
+        }
+        assertEquals(now + RepositoryCircuitBreaker.MAX_OPEN_DURATION, circuitBreaker.getStatus(REPOSITORY_ID).getRetryAt().getTime());
+    }
+}
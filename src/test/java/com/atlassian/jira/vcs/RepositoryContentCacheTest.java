@@ -0,0 +1,97 @@
+package com.atlassian.jira.vcs;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryContentCacheTest
+{
+    private RepositoryContentCache contentCache;
+
+    @Before
+    public void setUp()
+    {
+        contentCache = new RepositoryContentCache(100);
+    }
+
+    @Test
+    public void keepsContentWithinBudget()
+    {
+        assertEquals(Collections.<Long>emptyList(), contentCache.used(1L, 40));
+        assertEquals(Collections.<Long>emptyList(), contentCache.used(2L, 40));
+        assertEquals(Collections.singletonList(1L), contentCache.used(3L, 40));
+        assertEquals(80, contentCache.getLoadedSize());
+    }
+
+    @Test
+    public void unloadsLeastRecentlyUsedFirst()
+    {
+        contentCache.used(1L, 40);
+        contentCache.used(2L, 40);
+        contentCache.used(1L, 40);
+        assertEquals(Collections.singletonList(2L), contentCache.used(3L, 40));
+    }
+
+    @Test
+    public void unloadsSeveralToMakeRoom()
+    {
+        contentCache.used(1L, 30);
+        contentCache.used(2L, 30);
+        contentCache.used(3L, 30);
+        assertEquals(Arrays.asList(1L, 2L), contentCache.used(4L, 60));
+        assertEquals(90, contentCache.getLoadedSize());
+    }
+
+    @Test
+    public void keepsRepositoryInUseEvenIfLargerThanBudget()
+    {
+        contentCache.used(1L, 40);
+        assertEquals(Collections.singletonList(1L), contentCache.used(2L, 150));
+        assertEquals(150, contentCache.getLoadedSize());
+    }
+
+    @Test
+    public void updateDoesNotCountAsUse()
+    {
+        contentCache.used(1L, 40);
+        contentCache.used(2L, 40);
+        contentCache.updated(1L, 40);
+        assertEquals(Collections.singletonList(1L), contentCache.used(3L, 40));
+    }
+
+    @Test
+    public void updateThatGrowsUnloadsOthers()
+    {
+        contentCache.used(1L, 40);
+        contentCache.used(2L, 40);
+        assertEquals(Collections.singletonList(2L), contentCache.updated(1L, 70));
+        assertEquals(70, contentCache.getLoadedSize());
+    }
+
+    @Test
+    public void remembersUnloadedRepositoriesUntilUsed()
+    {
+        contentCache.used(1L, 60);
+        contentCache.updated(2L, 60);
+        assertTrue(contentCache.isUnloaded(1L));
+        assertFalse(contentCache.isUnloaded(2L));
+
+        contentCache.used(1L, 60);
+        assertFalse(contentCache.isUnloaded(1L));
+        assertTrue(contentCache.isUnloaded(2L));
+    }
+
+    @Test
+    public void removedRepositoryDoesNotCount()
+    {
+        contentCache.used(1L, 60);
+        contentCache.remove(1L);
+        assertEquals(Collections.<Long>emptyList(), contentCache.used(2L, 60));
+    }
+}
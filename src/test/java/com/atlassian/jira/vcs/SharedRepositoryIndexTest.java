@@ -0,0 +1,93 @@
+package com.atlassian.jira.vcs;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharedRepositoryIndexTest
+{
+    private static final Long REPOSITORY_ID = 10000L;
+    private static final long LEASE = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SharedRepositoryIndex node1;
+    private SharedRepositoryIndex node2;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final File sharedHome = temporaryFolder.newFolder("shared");
+        node1 = new SharedRepositoryIndex(new File(sharedHome, "cvs"));
+        node2 = new SharedRepositoryIndex(new File(sharedHome, "cvs"));
+    }
+
+    @Test
+    public void onlyOneNodeHoldsTheLease() throws Exception
+    {
+        assertTrue(node1.tryAcquireLease("node1", LEASE));
+        assertFalse(node2.tryAcquireLease("node2", LEASE));
+        // The holder renews its own lease
+        assertTrue(node1.tryAcquireLease("node1", LEASE));
+    }
+
+    @Test
+    public void expiredLeaseIsTakenOver() throws Exception
+    {
+        assertTrue(node1.tryAcquireLease("node1", 0));
+        assertTrue(node2.tryAcquireLease("node2", LEASE));
+        assertFalse(node1.tryAcquireLease("node1", LEASE));
+    }
+
+    @Test
+    public void releasedLeaseIsTakenOver() throws Exception
+    {
+        assertTrue(node1.tryAcquireLease("node1", LEASE));
+        node1.releaseLease("node1");
+        assertTrue(node2.tryAcquireLease("node2", LEASE));
+    }
+
+    @Test
+    public void publishedSnapshotIsVisibleToOtherNode() throws Exception
+    {
+        assertEquals(0, node2.getGeneration(REPOSITORY_ID));
+
+        assertTrue(node1.tryAcquireLease("node1", LEASE));
+        final File fetchedLog = temporaryFolder.newFile("fetched.log");
+        FileUtils.writeStringToFile(fetchedLog, "RCS file: /cvsroot/module/file.txt,v", "UTF-8");
+        assertEquals(1, node1.publish("node1", REPOSITORY_ID, fetchedLog));
+
+        assertEquals(1, node2.getGeneration(REPOSITORY_ID));
+        assertEquals("RCS file: /cvsroot/module/file.txt,v", FileUtils.readFileToString(node2.getSnapshot(REPOSITORY_ID), "UTF-8"));
+
+        FileUtils.writeStringToFile(fetchedLog, "RCS file: /cvsroot/module/other.txt,v", "UTF-8");
+        assertEquals(2, node1.publish("node1", REPOSITORY_ID, fetchedLog));
+        assertEquals(2, node2.getGeneration(REPOSITORY_ID));
+        assertEquals("RCS file: /cvsroot/module/other.txt,v", FileUtils.readFileToString(node2.getSnapshot(REPOSITORY_ID), "UTF-8"));
+    }
+
+    @Test
+    public void nodeWithoutLeaseDoesNotPublish() throws Exception
+    {
+        assertTrue(node1.tryAcquireLease("node1", 0));
+        assertTrue(node2.tryAcquireLease("node2", LEASE));
+
+        final File fetchedLog = temporaryFolder.newFile("fetched.log");
+        FileUtils.writeStringToFile(fetchedLog, "RCS file: /cvsroot/module/file.txt,v", "UTF-8");
+        // The lease of node1 expired and was taken over while it was fetching
+        assertEquals(0, node1.publish("node1", REPOSITORY_ID, fetchedLog));
+        assertEquals(0, node2.getGeneration(REPOSITORY_ID));
+        assertFalse(node2.getSnapshot(REPOSITORY_ID).exists());
+
+        assertEquals(1, node2.publish("node2", REPOSITORY_ID, fetchedLog));
+    }
+}
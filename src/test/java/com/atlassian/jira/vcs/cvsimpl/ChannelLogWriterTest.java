@@ -0,0 +1,54 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelLogWriterTest
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void writesLinesLargerThanBuffer() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ChannelLogWriter writer = new ChannelLogWriter(Channels.newChannel(out), UTF_8, "\n", 8, false);
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+        {
+            final String line = "revision 1." + i + " \u00e9\u00fc \ud83d\ude00";
+            writer.writeLine(line);
+            expected.append(line).append('\n');
+        }
+        writer.close();
+
+        assertEquals(expected.toString(), new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void joinsSurrogatePairSplitAcrossWrites() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ChannelLogWriter writer = new ChannelLogWriter(Channels.newChannel(out), UTF_8, "\n", 16, false);
+        writer.write("a\ud83d");
+        writer.write("\ude00b");
+        writer.close();
+
+        assertEquals("a\ud83d\ude00b", new String(out.toByteArray(), UTF_8));
+    }
+
+    @Test
+    public void replacesUnmappableCharacters() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ChannelLogWriter writer = new ChannelLogWriter(Channels.newChannel(out), Charset.forName("ISO-8859-1"), "\n", 16, false);
+        writer.writeLine("\u20ac1");
+        writer.close();
+
+        assertEquals("?1\n", new String(out.toByteArray(), "ISO-8859-1"));
+    }
+}
@@ -0,0 +1,38 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CommitIdentityTest
+{
+    private static final Date DATE = new Date(1262340000000L);
+
+    @Test
+    public void sameCommitInSameTimeBucketIsEqual()
+    {
+        final CommitIdentity identity = new CommitIdentity(1L, "alice", DATE, "TST-1 change");
+        final CommitIdentity other = new CommitIdentity(1L, "alice", new Date(DATE.getTime() + 1000), "TST-1 change");
+
+        assertEquals(identity, other);
+        assertEquals(identity.hashCode(), other.hashCode());
+    }
+
+    @Test
+    public void commentsWithSameHashAreDifferent()
+    {
+        // "Aa" and "BB" have the same String hash code
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        assertFalse(new CommitIdentity(1L, "alice", DATE, "TST-1 Aa").equals(new CommitIdentity(1L, "alice", DATE, "TST-1 BB")));
+    }
+
+    @Test
+    public void differentRepositoriesAreDifferent()
+    {
+        assertFalse(new CommitIdentity(1L, "alice", DATE, "TST-1 change").equals(new CommitIdentity(2L, "alice", DATE, "TST-1 change")));
+    }
+}
@@ -0,0 +1,253 @@
+package com.atlassian.jira.vcs.cvsimpl;
+
+import com.atlassian.jira.component.ComponentAccessor;
+import com.atlassian.jira.config.properties.APKeys;
+import com.atlassian.jira.config.properties.ApplicationProperties;
+import com.atlassian.jira.util.LockException;
+import com.opensymphony.module.propertyset.PropertySet;
+import net.sf.statcvs.input.LogSyntaxException;
+import net.sf.statcvs.model.Commit;
+import net.sf.statcvs.model.CvsContent;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CvsRepositoryTailParseTest
+{
+    private static final String FIRST = rlog("a.txt",
+            new String[] { "1.2", "2010/01/02 10:00:00", "TST-2 second change" },
+            new String[] { "1.1", "2010/01/01 10:00:00", "TST-1 first change" });
+    private static final String APPENDED = rlog("b.txt",
+            new String[] { "1.1", "2010/01/03 10:00:00", "TST-3 new file" });
+    // What an rlog -d run starting before the last parsed revision appends
+    private static final String OVERLAPPING = rlog("a.txt",
+            new String[] { "1.3", "2010/01/04 10:00:00", "TST-4 third change" },
+            new String[] { "1.2", "2010/01/02 10:00:00", "TST-2 second change" });
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File logFile;
+    private RecordingCvsRepositoryUtil cvsRepositoryUtil;
+    private CvsRepository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // The issue keys in the comments are matched with the default project key pattern
+        ComponentAccessor.initialiseWorker(proxy(ComponentAccessor.Worker.class, new InvocationHandler()
+        {
+            private final ApplicationProperties applicationProperties = proxy(ApplicationProperties.class, new InvocationHandler()
+            {
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getReturnType() == String.class && args != null && args.length == 1 && APKeys.JIRA_PROJECTKEY_PATTERN.equals(args[0]))
+                    {
+                        return "([A-Z][A-Z]+)";
+                    }
+                    return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+                }
+            });
+
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                return args != null && args.length == 1 && ApplicationProperties.class.equals(args[0]) ? applicationProperties : null;
+            }
+        }));
+
+        logFile = temporaryFolder.newFile("cvs.log");
+        cvsRepositoryUtil = new RecordingCvsRepositoryUtil();
+
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put(CvsRepository.KEY_CVS_ROOT, ":pserver:anonymous@localhost:/cvsroot");
+        properties.put(CvsRepository.KEY_MODULE_NAME, "module");
+        properties.put(CvsRepository.KEY_FETCH_LOG, "false");
+        properties.put(CvsRepository.KEY_LOG_FILE_PATH, logFile.getAbsolutePath());
+        properties.put(CvsRepository.KEY_ENCODING, "UTF-8");
+        repository = new CvsRepository(propertySet(properties), cvsRepositoryUtil);
+        repository.setId(10000L);
+        repository.setName("module");
+    }
+
+    @Test
+    public void appendedLogOnlyParsesTail() throws Exception
+    {
+        FileUtils.writeStringToFile(logFile, FIRST, "UTF-8");
+        repository.updateRepository();
+        final long firstLength = logFile.length();
+
+        FileUtils.writeStringToFile(logFile, APPENDED, "UTF-8", true);
+        repository.updateRepository();
+
+        assertEquals(Arrays.asList(0L, firstLength), cvsRepositoryUtil.offsets);
+        assertEquals(1, repository.getCommitsForIssue("TST-1").size());
+        assertEquals(1, repository.getCommitsForIssue("TST-3").size());
+    }
+
+    @Test
+    public void changedPrefixParsesWholeLog() throws Exception
+    {
+        FileUtils.writeStringToFile(logFile, FIRST, "UTF-8");
+        repository.updateRepository();
+
+        FileUtils.writeStringToFile(logFile, FIRST.replace("TST-1 first change", "TST-5 first change") + APPENDED, "UTF-8");
+        repository.updateRepository();
+
+        assertEquals(Arrays.asList(0L, 0L), cvsRepositoryUtil.offsets);
+        assertEquals(0, repository.getCommitsForIssue("TST-1").size());
+        assertEquals(1, repository.getCommitsForIssue("TST-5").size());
+        assertEquals(1, repository.getCommitsForIssue("TST-3").size());
+    }
+
+    @Test
+    public void overlappingTailDoesNotDuplicateRevisions() throws Exception
+    {
+        FileUtils.writeStringToFile(logFile, FIRST, "UTF-8");
+        repository.updateRepository();
+        final long firstLength = logFile.length();
+
+        FileUtils.writeStringToFile(logFile, OVERLAPPING, "UTF-8", true);
+        repository.updateRepository();
+
+        assertEquals(Arrays.asList(0L, firstLength), cvsRepositoryUtil.offsets);
+        int revisions = 0;
+        for (Commit commit : repository.getCommitsByAuthor("alice", null, null))
+        {
+            revisions += commit.getRevisions().size();
+        }
+        assertEquals(3, revisions);
+        assertEquals(1, repository.getCommitsForIssue("TST-2").size());
+    }
+
+    @Test
+    public void compressedLogIsNotTailParsed() throws Exception
+    {
+        writeCompressed(FIRST);
+        assertNull(cvsRepositoryUtil.getLogPosition(logFile, logFile.length()));
+        repository.updateRepository();
+
+        writeCompressed(FIRST + APPENDED);
+        repository.updateRepository();
+
+        assertEquals(Arrays.asList(0L, 0L), cvsRepositoryUtil.offsets);
+        assertEquals(1, repository.getCommitsForIssue("TST-3").size());
+    }
+
+    @Test
+    public void logPositionOfPlainLogChangesWithPrefix() throws Exception
+    {
+        FileUtils.writeStringToFile(logFile, FIRST, "UTF-8");
+        final LogPosition position = cvsRepositoryUtil.getLogPosition(logFile, logFile.length());
+        assertNotNull(position);
+
+        FileUtils.writeStringToFile(logFile, APPENDED, "UTF-8", true);
+        assertEquals(position, cvsRepositoryUtil.getLogPosition(logFile, position.getOffset()));
+
+        FileUtils.writeStringToFile(logFile, FIRST.replace("first", "FIRST") + APPENDED, "UTF-8");
+        assertFalse(position.equals(cvsRepositoryUtil.getLogPosition(logFile, position.getOffset())));
+    }
+
+    private void writeCompressed(String log) throws IOException
+    {
+        final OutputStream out = new GZIPOutputStream(new FileOutputStream(logFile));
+        try
+        {
+            out.write(log.getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * @param file      the file name in the module
+     * @param revisions revision number, date and comment of each revision, newest first
+     * @return the rlog output of the file
+     */
+    private static String rlog(String file, String[]... revisions)
+    {
+        final StringBuilder log = new StringBuilder();
+        log.append("\n");
+        log.append("RCS file: /cvsroot/module/").append(file).append(",v\n");
+        log.append("head: ").append(revisions[0][0]).append("\n");
+        log.append("branch:\n");
+        log.append("locks: strict\n");
+        log.append("access list:\n");
+        log.append("symbolic names:\n");
+        log.append("keyword substitution: kv\n");
+        log.append("total revisions: ").append(revisions.length).append(";\tselected revisions: ").append(revisions.length).append("\n");
+        log.append("description:\n");
+        for (String[] revision : revisions)
+        {
+            log.append("----------------------------\n");
+            log.append("revision ").append(revision[0]).append("\n");
+            log.append("date: ").append(revision[1]).append(";  author: alice;  state: Exp;");
+            if (!"1.1".equals(revision[0]))
+            {
+                log.append("  lines: +1 -1");
+            }
+            log.append("\n");
+            log.append(revision[2]).append("\n");
+        }
+        log.append("=============================================================================\n");
+        return log.toString();
+    }
+
+    private static PropertySet propertySet(final Map<String, String> properties)
+    {
+        return proxy(PropertySet.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if ("getString".equals(method.getName()))
+                {
+                    return properties.get(args[0]);
+                }
+                return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    /**
+     * Records the offset of every parse of the log.
+     */
+    private static class RecordingCvsRepositoryUtil extends CvsRepositoryUtilImpl
+    {
+        private final List<Long> offsets = new ArrayList<Long>();
+
+        @Override
+        public CvsContent parseCvsLogs(File logFile, long offset, String moduleName, String repositoryPath, Charset charset, JiraRevisionFilter revisionFilter) throws IOException, LogSyntaxException, LockException
+        {
+            offsets.add(offset);
+            return super.parseCvsLogs(logFile, offset, moduleName, repositoryPath, charset, revisionFilter);
+        }
+    }
+}